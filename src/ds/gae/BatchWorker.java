@@ -0,0 +1,138 @@
+package ds.gae;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import ds.gae.ConfirmationQueue.Lease;
+import ds.gae.entities.Quote;
+
+/**
+ * Drains the {@link ConfirmationQueue} and confirms the carts of each
+ * company together, in a single transaction per batch.
+ * 
+ * Carts spanning multiple companies are confirmed one by one, exactly like
+ * the {@link Worker} does. Carts which were handled already by an earlier
+ * delivery get their stored outcome instead of being confirmed again.
+ */
+public class BatchWorker extends HttpServlet {
+	private static final long serialVersionUID = 3402758126541380785L;
+
+	private static final Logger logger = Logger.getLogger(BatchWorker.class.getName());
+
+	/**
+	 * Maximum number of carts to lease at once.
+	 */
+	private static final int BATCH_SIZE = 100;
+
+	/**
+	 * Duration (in milliseconds) of a lease on a batch of carts.
+	 */
+	private static final long LEASE_MILLIS = 60 * 1000L;
+
+	/**
+	 * Time (in milliseconds) to keep draining in a single request, before
+	 * handing over to a new drain task.
+	 */
+	private static final long MAX_DRAIN_TIME = 5 * 60 * 1000L;
+
+	@Override
+	protected void doPost(HttpServletRequest req, HttpServletResponse resp)
+			throws ServletException, IOException {
+		int shard;
+		try {
+			shard = Integer.parseInt(req.getParameter("shard"));
+		} catch (NumberFormatException e) {
+			// Drains scheduled before sharding
+			shard = 0;
+		}
+		ConfirmationDispatcher dispatcher = ConfirmationDispatcher.get();
+		if (shard < 0 || shard >= dispatcher.getNbOfShards()) {
+			// Not worth retrying, for example after reducing the shards
+			logger.log(Level.WARNING, "Dropping drain of unknown shard {0}", shard);
+			return;
+		}
+		ConfirmationQueue queue = dispatcher.getBatchQueue(shard);
+		long deadline = System.currentTimeMillis() + MAX_DRAIN_TIME;
+		List<Lease> leases;
+		while (!(leases = queue.lease(BATCH_SIZE, LEASE_MILLIS)).isEmpty()) {
+			process(queue, leases);
+			if (System.currentTimeMillis() > deadline) {
+				// Continue in a new request
+				dispatcher.scheduleDrain(shard);
+				break;
+			}
+		}
+	}
+
+	private void process(ConfirmationQueue queue, List<Lease> leases) {
+		// Group the single-company carts by company
+		Map<String, List<Lease>> groupedLeases = new HashMap<String, List<Lease>>();
+		List<Lease> otherLeases = new ArrayList<Lease>();
+		for (Lease lease : leases) {
+			Set<String> companies = new HashSet<String>();
+			for (Quote quote : lease.getParams().getQuotes()) {
+				companies.add(quote.getRentalCompany());
+			}
+			if (companies.size() == 1) {
+				String company = companies.iterator().next();
+				List<Lease> group = groupedLeases.get(company);
+				if (group == null) {
+					group = new ArrayList<Lease>();
+					groupedLeases.put(company, group);
+				}
+				group.add(lease);
+			} else {
+				otherLeases.add(lease);
+			}
+		}
+
+		for (Map.Entry<String, List<Lease>> entry : groupedLeases.entrySet()) {
+			confirmInCompany(entry.getKey(), entry.getValue());
+			for (Lease lease : entry.getValue()) {
+				queue.delete(lease);
+			}
+		}
+		for (Lease lease : otherLeases) {
+			Worker.confirm(lease.getParams());
+			queue.delete(lease);
+		}
+	}
+
+	private void confirmInCompany(String company, List<Lease> leases) {
+		List<String> tokens = new ArrayList<String>();
+		List<List<Quote>> carts = new ArrayList<List<Quote>>();
+		for (Lease lease : leases) {
+			tokens.add(lease.getParams().getToken());
+			carts.add(lease.getParams().getQuotes());
+		}
+
+		List<ReservationException> failures;
+		try {
+			failures = CarRentalModel.get().confirmCartsInCompany(company, tokens, carts);
+		} catch (ReservationException e) {
+			// The batch as a whole failed, fall back to one cart at a time
+			for (Lease lease : leases) {
+				Worker.confirm(lease.getParams());
+			}
+			return;
+		}
+
+		// Notify every renter of their own cart
+		for (int i = 0; i < leases.size(); i++) {
+			Worker.notifyResult(leases.get(i).getParams(), failures.get(i));
+		}
+	}
+
+}
@@ -0,0 +1,175 @@
+package ds.gae;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import ds.gae.entities.Quote;
+
+/**
+ * Per-instance holds on the capacity of car types, taken when a quote is
+ * issued.
+ * 
+ * A hold keeps one car of a type claimed for the period of a quote, until
+ * the quote is confirmed or the hold expires. Quotes for the same type and
+ * an overlapping period only succeed while there are more free cars than
+ * holds, so fewer quotes fail when their cart is confirmed later on.
+ * 
+ * A cart may be confirmed by another instance, which cannot release the
+ * holds of this one. Each hold therefore remembers the version of its
+ * company when it was taken, and stops counting as soon as a snapshot of a
+ * later version is seen: the free cars of that snapshot already account for
+ * whatever was reserved in the meantime, so counting the hold as well would
+ * claim the same car twice.
+ */
+public class CapacityHolds {
+
+	private final long ttl;
+
+	private final ConcurrentMap<String, CompanyHolds> companies = new ConcurrentHashMap<>();
+
+	/**
+	 * @param ttl
+	 *            the time (in milliseconds) after which a hold expires
+	 */
+	public CapacityHolds(long ttl) {
+		this.ttl = ttl;
+	}
+
+	/**
+	 * Hold a car for the given quote, if there are more free cars than
+	 * holds which overlap with the quote.
+	 * 
+	 * @param quote
+	 *            the quote to hold a car for
+	 * @param nbOfFreeCars
+	 *            the number of cars of the quoted type which are free over
+	 *            the whole period of the quote
+	 * @param version
+	 *            the version of the company for which the free cars were
+	 *            counted
+	 * @return True if the car was held.
+	 */
+	public boolean hold(Quote quote, int nbOfFreeCars, long version) {
+		CompanyHolds holds = companies.get(quote.getRentalCompany());
+		if (holds == null) {
+			CompanyHolds newHolds = new CompanyHolds();
+			holds = companies.putIfAbsent(quote.getRentalCompany(), newHolds);
+			if (holds == null) {
+				holds = newHolds;
+			}
+		}
+		return holds.hold(quote, nbOfFreeCars, version, System.currentTimeMillis());
+	}
+
+	/**
+	 * Release the holds of the given quotes, if they are still held.
+	 */
+	public void release(Collection<Quote> quotes) {
+		for (Quote quote : quotes) {
+			CompanyHolds holds = companies.get(quote.getRentalCompany());
+			if (holds != null) {
+				holds.release(quote);
+			}
+		}
+	}
+
+	/**
+	 * Get the number of (unexpired) holds on the given car type which
+	 * overlap with the given period, and were taken at the given version of
+	 * the company or later.
+	 */
+	public int getNbOfHolds(String company, String carType, int startDay, int endDay,
+			long version) {
+		CompanyHolds holds = companies.get(company);
+		return (holds == null) ? 0 : holds.count(carType, startDay, endDay, version,
+				System.currentTimeMillis());
+	}
+
+	/**
+	 * The holds of a single company, by car type.
+	 */
+	private class CompanyHolds {
+
+		private final Map<String, List<Hold>> holdsByType = new HashMap<String, List<Hold>>();
+
+		private synchronized boolean hold(Quote quote, int nbOfFreeCars, long version, long now) {
+			int nbOfHolds = count(quote.getCarType(), quote.getStartDay(), quote.getEndDay(),
+					version, now);
+			if (nbOfHolds >= nbOfFreeCars)
+				return false;
+			List<Hold> holds = holdsByType.get(quote.getCarType());
+			if (holds == null) {
+				holds = new ArrayList<Hold>();
+				holdsByType.put(quote.getCarType(), holds);
+			}
+			holds.add(new Hold(quote.getCarRenter(), quote.getStartDay(), quote.getEndDay(),
+					version, now + ttl));
+			return true;
+		}
+
+		private synchronized void release(Quote quote) {
+			List<Hold> holds = holdsByType.get(quote.getCarType());
+			if (holds == null)
+				return;
+			for (Iterator<Hold> it = holds.iterator(); it.hasNext();) {
+				Hold hold = it.next();
+				if (hold.matches(quote)) {
+					it.remove();
+					return;
+				}
+			}
+		}
+
+		/**
+		 * Count the holds overlapping with the given period, and drop the
+		 * expired and outdated holds along the way.
+		 */
+		private synchronized int count(String carType, int startDay, int endDay, long version,
+				long now) {
+			List<Hold> holds = holdsByType.get(carType);
+			if (holds == null)
+				return 0;
+			int count = 0;
+			for (Iterator<Hold> it = holds.iterator(); it.hasNext();) {
+				Hold hold = it.next();
+				if (hold.expiresAt <= now || hold.version < version) {
+					it.remove();
+				} else if (hold.startDay <= endDay && startDay <= hold.endDay) {
+					count++;
+				}
+			}
+			return count;
+		}
+
+	}
+
+	private static class Hold {
+
+		private final String renter;
+		private final int startDay;
+		private final int endDay;
+		private final long version;
+		private final long expiresAt;
+
+		private Hold(String renter, int startDay, int endDay, long version, long expiresAt) {
+			this.renter = renter;
+			this.startDay = startDay;
+			this.endDay = endDay;
+			this.version = version;
+			this.expiresAt = expiresAt;
+		}
+
+		private boolean matches(Quote quote) {
+			return startDay == quote.getStartDay() && endDay == quote.getEndDay()
+					&& renter.equals(quote.getCarRenter());
+		}
+
+	}
+
+}
@@ -2,23 +2,46 @@ package ds.gae;
 
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.ConcurrentModificationException;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.Lock;
+import java.util.logging.Level;
+import java.util.logging.Logger;
 
 import javax.persistence.EntityManager;
 import javax.persistence.EntityTransaction;
+import javax.persistence.OptimisticLockException;
+import javax.persistence.PersistenceException;
 
+import com.google.appengine.api.ThreadManager;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
 
+import ds.gae.entities.AvailabilityCalendar;
+import ds.gae.entities.AvailabilityMatrix;
 import ds.gae.entities.Car;
 import ds.gae.entities.CarRentalCompany;
 import ds.gae.entities.CarType;
+import ds.gae.entities.CartConfirmation;
+import ds.gae.entities.CompanySnapshot;
 import ds.gae.entities.Notification;
+import ds.gae.entities.Period;
 import ds.gae.entities.Quote;
 import ds.gae.entities.Renter;
 import ds.gae.entities.Reservation;
@@ -26,6 +49,8 @@ import ds.gae.entities.ReservationConstraints;
 
 public class CarRentalModel {
 
+	private static final Logger logger = Logger.getLogger(CarRentalModel.class.getName());
+
 	private static CarRentalModel instance;
 
 	public static CarRentalModel get() {
@@ -34,6 +59,61 @@ public class CarRentalModel {
 		return instance;
 	}
 
+	/**
+	 * Time (in milliseconds) to cache the catalog of companies and car types.
+	 */
+	private static final long CATALOG_TTL = 10 * 60 * 1000L;
+
+	private static final String COMPANY_NAMES_KEY = "catalog:companyNames";
+	private static final String CAR_TYPE_NAMES_KEY = "catalog:carTypeNames:";
+
+	/**
+	 * Retries of transactions which failed on a concurrent modification.
+	 */
+	private final RetryPolicy transactionRetryPolicy = RetryPolicy.fromSystemProperties(
+			"ds.gae.transaction.retry", 5, 50L, 2000L);
+
+	/**
+	 * Number of concurrent modification conflicts per company.
+	 */
+	private final ConcurrentMap<String, AtomicLong> conflictCounts = new ConcurrentHashMap<>();
+
+	/**
+	 * Maximum number of companies (i.e. entity groups) to confirm in a single
+	 * cross-group transaction. Larger carts fall back to one transaction per
+	 * company, with compensation on failure.
+	 */
+	private final int maxCrossGroupCompanies = Integer.getInteger(
+			"ds.gae.confirm.maxCrossGroupCompanies", 5);
+
+	/**
+	 * Maximum number of companies to confirm concurrently for a single cart.
+	 */
+	private final int maxParallelConfirmations = Integer.getInteger(
+			"ds.gae.confirm.maxParallelCompanies", 5);
+
+	/**
+	 * Serializes the reservation changes of a company within this instance,
+	 * so that concurrent requests wait for each other instead of conflicting
+	 * on commit. Other instances are still kept out by the transactions.
+	 */
+	private final CompanyLocks companyLocks = new CompanyLocks(Integer.getInteger(
+			"ds.gae.companyLocks.stripes", 64));
+
+	/**
+	 * Holds on car capacity for issued quotes, until they are confirmed.
+	 */
+	private final CapacityHolds capacityHolds = new CapacityHolds(Long.getLong(
+			"ds.gae.quote.holdTtl", 10 * 60 * 1000L));
+
+	private final CompanySnapshotCache snapshotCache = new CompanySnapshotCache(this);
+
+	private final NotificationSignals notificationSignals = new NotificationSignals();
+
+	private final LocalMemcache catalogCache = LocalMemcache.getService();
+
+	private final CatalogSnapshotStore catalogSnapshots = new CatalogSnapshotStore(this);
+
 	/**
 	 * Get the car types available in the given car rental company.
 	 * 
@@ -42,13 +122,20 @@ public class CarRentalModel {
 	 * @return The list of car types (i.e. name of car type), available in the
 	 *         given car rental company.
 	 */
+	@SuppressWarnings("unchecked")
 	public Set<String> getCarTypesNames(String crcName) {
+		Set<String> carTypeNames = (Set<String>) catalogCache.get(CAR_TYPE_NAMES_KEY + crcName);
+		if (carTypeNames != null)
+			return carTypeNames;
+
 		EntityManager em = EMF.get().createEntityManager();
 		try {
-			return getCarTypesNames(em, crcName);
+			carTypeNames = Collections.unmodifiableSet(getCarTypesNames(em, crcName));
 		} finally {
 			em.close();
 		}
+		catalogCache.put(CAR_TYPE_NAMES_KEY + crcName, carTypeNames, CATALOG_TTL);
+		return carTypeNames;
 	}
 
 	protected Set<String> getCarTypesNames(EntityManager em, String crcName) {
@@ -66,13 +153,21 @@ public class CarRentalModel {
 	 * 
 	 * @return the list of car rental companies
 	 */
+	@SuppressWarnings("unchecked")
 	public Collection<String> getAllRentalCompanyNames() {
+		Collection<String> companyNames = (Collection<String>) catalogCache.get(COMPANY_NAMES_KEY);
+		if (companyNames != null)
+			return companyNames;
+
 		EntityManager em = EMF.get().createEntityManager();
 		try {
-			return getAllRentalCompanyNames(em);
+			companyNames = Collections.unmodifiableList(new ArrayList<String>(
+					getAllRentalCompanyNames(em)));
 		} finally {
 			em.close();
 		}
+		catalogCache.put(COMPANY_NAMES_KEY, companyNames, CATALOG_TTL);
+		return companyNames;
 	}
 
 	protected Collection<String> getAllRentalCompanyNames(EntityManager em) {
@@ -96,7 +191,43 @@ public class CarRentalModel {
 	}
 
 	protected CarRentalCompany getRentalCompany(EntityManager em, String company) {
-		return em.find(CarRentalCompany.class, company);
+		CarRentalCompany crc = em.find(CarRentalCompany.class, company);
+		if (crc != null) {
+			loadCars(em, crc);
+		}
+		return crc;
+	}
+
+	/**
+	 * Load the cars of the given company, which are not referenced from the
+	 * company entity itself.
+	 * 
+	 * The entity manager hands out the same managed instance for every find
+	 * of the company, so the cars are only queried on first use. Later quotes
+	 * in the same transaction reuse the cars and the indexes built over them.
+	 * 
+	 * @return The given company.
+	 */
+	protected CarRentalCompany loadCars(EntityManager em, CarRentalCompany crc) {
+		if (crc.hasLoadedCars())
+			return crc;
+		List<Car> cars = new ArrayList<>();
+		for (CarType carType : crc.getAllCarTypes()) {
+			cars.addAll(getCarsByCarType(em, crc.getName(), carType));
+		}
+		crc.setCars(cars);
+		return crc;
+	}
+
+	/**
+	 * Check whether the given company has any cars, without loading them.
+	 */
+	protected boolean hasCars(EntityManager em, CarRentalCompany crc) {
+		for (CarType carType : crc.getAllCarTypes()) {
+			if (getAmountOfCarsByCarType(em, crc.getName(), carType) > 0)
+				return true;
+		}
+		return false;
 	}
 
 	/**
@@ -111,11 +242,72 @@ public class CarRentalModel {
 			addRentalCompany(em, company);
 		} finally {
 			em.close();
+			catalogChanged(company.getName());
 		}
 	}
 
+	/**
+	 * Handle a change to the catalog of the given company, by dropping its
+	 * cached catalog entries and regenerating the catalog snapshot.
+	 * 
+	 * @param crcName
+	 *            name of the car rental company
+	 */
+	protected void catalogChanged(String crcName) {
+		invalidateCatalog(crcName);
+		catalogSnapshots.rebuild();
+	}
+
+	/**
+	 * Drop the cached catalog entries of the given company.
+	 * 
+	 * @param crcName
+	 *            name of the car rental company
+	 */
+	protected void invalidateCatalog(String crcName) {
+		catalogCache.delete(COMPANY_NAMES_KEY);
+		catalogCache.delete(CAR_TYPE_NAMES_KEY + crcName);
+	}
+
+	/**
+	 * Prime the caches of this instance from the stored catalog snapshot,
+	 * for example while warming up.
+	 * 
+	 * @return The names of the companies in the snapshot, or null if there is
+	 *         no usable snapshot.
+	 */
+	public Collection<String> loadCatalogSnapshot() {
+		List<CompanySnapshot> snapshots = catalogSnapshots.load();
+		if (snapshots == null)
+			return null;
+		List<String> companyNames = new ArrayList<String>();
+		for (CompanySnapshot snapshot : snapshots) {
+			Set<String> carTypeNames = new HashSet<String>();
+			for (CarType carType : snapshot.getAllCarTypes()) {
+				carTypeNames.add(carType.getName());
+				CarTypeCache.get().put(carType);
+			}
+			companyNames.add(snapshot.getName());
+			catalogCache.put(CAR_TYPE_NAMES_KEY + snapshot.getName(),
+					Collections.unmodifiableSet(carTypeNames), CATALOG_TTL);
+			snapshotCache.prime(snapshot);
+		}
+		companyNames = Collections.unmodifiableList(companyNames);
+		catalogCache.put(COMPANY_NAMES_KEY, companyNames, CATALOG_TTL);
+		return companyNames;
+	}
+
 	protected void addRentalCompany(EntityManager em, CarRentalCompany company) {
 		em.persist(company);
+		// Cars are not cascaded from the company
+		for (Car car : company.getCars()) {
+			em.persist(car);
+		}
+		snapshotCache.invalidate(company.getName());
+		// Replace any stale car types of this company
+		for (CarType carType : company.getAllCarTypes()) {
+			CarTypeCache.get().put(carType);
+		}
 	}
 
 	/**
@@ -137,12 +329,62 @@ public class CarRentalModel {
 			throws ReservationException {
 		EntityManager em = EMF.get().createEntityManager();
 		try {
-			CarRentalCompany crc = getRentalCompany(em, company);
-			if (crc != null) {
-				return crc.createQuote(constraints, renterName);
-			} else {
+			// Quotes are tentative, so a (recent) snapshot suffices
+			CompanySnapshot crc = snapshotCache.getSnapshot(em, company);
+			if (crc == null)
 				throw new ReservationException("CarRentalCompany not found.");
-			}
+			Quote quote = crc.createQuote(constraints, renterName);
+			// Hold a car until the quote is confirmed
+			int nbOfFreeCars = crc.getNbOfFreeCars(constraints.getCarType(),
+					constraints.getStartDay(), constraints.getEndDay());
+			if (!capacityHolds.hold(quote, nbOfFreeCars, crc.getVersion()))
+				throw new ReservationException("<" + company
+						+ "> No cars available to satisfy the given constraints.");
+			return quote;
+		} finally {
+			em.close();
+		}
+	}
+
+	/**
+	 * Check the availability of all car types of the given company over a
+	 * number of periods at once.
+	 * 
+	 * @param company
+	 *            name of the car rental company
+	 * @param periods
+	 *            the periods to check
+	 * @return A matrix with the availability per car type and period, or null
+	 *         if the company was not found.
+	 */
+	public AvailabilityMatrix getAvailability(String company, List<Period> periods) {
+		EntityManager em = EMF.get().createEntityManager();
+		try {
+			CompanySnapshot crc = snapshotCache.getSnapshot(em, company);
+			return (crc == null) ? null : crc.getAvailability(periods);
+		} finally {
+			em.close();
+		}
+	}
+
+	/**
+	 * Get the number of free cars per car type and per day of a month in the
+	 * given company.
+	 * 
+	 * @param company
+	 *            name of the car rental company
+	 * @param year
+	 *            the year
+	 * @param month
+	 *            the month of the year, starting from 1 for January
+	 * @return The availability calendar of the month, or null if the company
+	 *         was not found.
+	 */
+	public AvailabilityCalendar getAvailabilityCalendar(String company, int year, int month) {
+		EntityManager em = EMF.get().createEntityManager();
+		try {
+			CompanySnapshot crc = snapshotCache.getSnapshot(em, company);
+			return (crc == null) ? null : crc.getCalendar(year, month);
 		} finally {
 			em.close();
 		}
@@ -157,11 +399,15 @@ public class CarRentalModel {
 	 *             Confirmation of given quote failed.
 	 */
 	public Reservation confirmQuote(Quote q) throws ReservationException {
+		List<Lock> locks = companyLocks.lockAll(Collections.singleton(q.getRentalCompany()));
 		EntityManager em = EMF.get().createEntityManager();
 		try {
 			return confirmQuote(em, q);
 		} finally {
 			em.close();
+			snapshotCache.invalidate(q.getRentalCompany());
+			companyLocks.unlockAll(locks);
+			capacityHolds.release(Collections.singleton(q));
 		}
 	}
 
@@ -184,27 +430,259 @@ public class CarRentalModel {
 	 *             given quotes is confirmed.
 	 */
 	public List<Reservation> confirmQuotes(List<Quote> quotes) throws ReservationException {
-		// Group the quotes by company
-		Map<String, List<Quote>> groupedQuotes = groupQuotesByCompany(quotes);
-		List<Reservation> reservations = new ArrayList<Reservation>();
+		return confirmQuotes(null, quotes);
+	}
+
+	/**
+	 * Confirm the quotes of a cart, at most once for the given token.
+	 * 
+	 * Together with the reservations of the cart in a company, a
+	 * {@link CartConfirmation} of the token is written in the entity group of
+	 * that company, in the same transaction. A later call with the same token,
+	 * such as a redelivered task, finds it in its own transaction and gets the
+	 * stored outcome instead of confirming the quotes again.
+	 * 
+	 * A cart without a token gets a token of its own, so that a retried
+	 * transaction still recognizes an earlier attempt which was applied. Such
+	 * a token can never be sent again, so its outcome is deleted again once
+	 * this call is done with it.
+	 * 
+	 * @param token
+	 *            the token of the cart, or null if it has none
+	 * @param quotes
+	 *            the quotes to confirm
+	 * @return The list of reservations made by this call, which is empty if
+	 *         the cart was confirmed already by an earlier call.
+	 * @throws ReservationException
+	 *             One of the quotes cannot be confirmed, now or in an earlier
+	 *             call. Therefore none of the given quotes is confirmed.
+	 */
+	public List<Reservation> confirmQuotes(String token, List<Quote> quotes)
+			throws ReservationException {
+		boolean generatedToken = (token == null);
+		String cartToken = generatedToken ? newToken() : token;
 		try {
-			// Confirm each group (in a transaction)
-			for (List<Quote> group : groupedQuotes.values()) {
-				reservations.addAll(confirmQuotesInCompany(group));
+			// Group the quotes by company
+			Map<String, List<Quote>> groupedQuotes = groupQuotesByCompany(quotes);
+			if (groupedQuotes.isEmpty())
+				return new ArrayList<Reservation>();
+			try {
+				List<Reservation> reservations;
+				if (groupedQuotes.size() <= maxCrossGroupCompanies) {
+					// A single (cross-group) transaction is all or nothing already
+					reservations = confirmQuotesAcrossCompanies(cartToken, groupedQuotes);
+				} else {
+					reservations = confirmGroupsInParallel(cartToken, groupedQuotes);
+				}
+				if (generatedToken) {
+					forgetConfirmations(groupedQuotes.keySet(),
+							Collections.singleton(cartToken));
+				}
+				return reservations;
+			} catch (ReservationException e) {
+				// Nobody can look up the outcome of a generated token
+				if (!generatedToken) {
+					recordFailure(cartToken, groupedQuotes.keySet(), e);
+				}
+				throw e;
 			}
-			return reservations;
+		} finally {
+			// Confirmed or not, the quotes are done with
+			capacityHolds.release(quotes);
+		}
+	}
+
+	/**
+	 * Confirm the given groups of quotes in a single transaction, spanning
+	 * the entity groups of all their companies.
+	 * 
+	 * @param token
+	 *            the token of the cart, or null
+	 * @param groupedQuotes
+	 *            the quotes to confirm, grouped by company
+	 * @return The list of reservations, resulting from confirming all given
+	 *         quotes.
+	 * @throws ReservationException
+	 *             One of the quotes cannot be confirmed. Therefore none of the
+	 *             given quotes is confirmed.
+	 */
+	protected List<Reservation> confirmQuotesAcrossCompanies(final String token,
+			final Map<String, List<Quote>> groupedQuotes) throws ReservationException {
+		List<Reservation> reservations;
+		try {
+			reservations = runInTransaction(groupedQuotes.keySet(),
+					new TransactionalTask<List<Reservation>>() {
+						@Override
+						public List<Reservation> run(EntityManager em)
+								throws ReservationException {
+							CartConfirmation earlier = findConfirmation(em, token,
+									groupedQuotes.keySet());
+							if (earlier != null)
+								return getStoredOutcome(earlier);
+							List<Reservation> reservations = new ArrayList<>();
+							for (List<Quote> group : groupedQuotes.values()) {
+								for (Quote q : group) {
+									reservations.add(confirmQuote(em, q));
+								}
+							}
+							recordConfirmed(em, token, groupedQuotes.keySet(), reservations);
+							return reservations;
+						}
+					});
 		} catch (ReservationException e) {
-			// Cancel the committed reservations (outside of a transaction)
-			for (Reservation res : reservations) {
-				cancelReservation(res);
+			// The last attempt may have been applied although its commit
+			// reported a conflict
+			if (!isConfirmed(token, groupedQuotes.keySet().iterator().next()))
+				throw e;
+			reservations = new ArrayList<>();
+		}
+		for (String company : groupedQuotes.keySet()) {
+			snapshotCache.invalidate(company);
+		}
+		return reservations;
+	}
+
+	/**
+	 * Confirm the given groups of quotes concurrently, each group in its own
+	 * transaction. When any group fails, the reservations of the groups
+	 * which did commit are cancelled again.
+	 * 
+	 * @param token
+	 *            the token of the cart, or null
+	 * @param groupedQuotes
+	 *            the quotes to confirm, grouped by company
+	 * @return The list of reservations, resulting from confirming all given
+	 *         quotes.
+	 * @throws ReservationException
+	 *             One of the quotes cannot be confirmed. Therefore none of the
+	 *             given quotes is confirmed.
+	 */
+	protected List<Reservation> confirmGroupsInParallel(final String token,
+			Map<String, List<Quote>> groupedQuotes) throws ReservationException {
+		int nbOfThreads = Math.min(groupedQuotes.size(), maxParallelConfirmations);
+		ExecutorService executor = Executors.newFixedThreadPool(nbOfThreads,
+				ThreadManager.currentRequestThreadFactory());
+		try {
+			// Confirm each group (in a transaction)
+			Map<String, Future<List<Reservation>>> futures = new LinkedHashMap<>();
+			for (final Map.Entry<String, List<Quote>> group : groupedQuotes.entrySet()) {
+				futures.put(group.getKey(), executor.submit(new Callable<List<Reservation>>() {
+					@Override
+					public List<Reservation> call() throws ReservationException {
+						return confirmQuotesInCompany(token, group.getValue());
+					}
+				}));
+			}
+
+			// Wait for all groups, to know which ones have committed
+			Map<String, List<Reservation>> committed = new LinkedHashMap<>();
+			Throwable failure = null;
+			for (Map.Entry<String, Future<List<Reservation>>> future : futures.entrySet()) {
+				try {
+					committed.put(future.getKey(), getUninterruptibly(future.getValue()));
+				} catch (ExecutionException e) {
+					if (failure == null) {
+						failure = e.getCause();
+					}
+				}
 			}
-			throw e;
+			if (failure == null) {
+				List<Reservation> reservations = new ArrayList<Reservation>();
+				for (List<Reservation> group : committed.values()) {
+					reservations.addAll(group);
+				}
+				return reservations;
+			}
+
+			// Cancel the committed groups again
+			for (Map.Entry<String, List<Reservation>> group : committed.entrySet()) {
+				cancelGroup(group.getKey(), token, group.getValue());
+			}
+			if (failure instanceof ReservationException)
+				throw (ReservationException) failure;
+			if (failure instanceof RuntimeException)
+				throw (RuntimeException) failure;
+			throw (Error) failure;
+		} finally {
+			executor.shutdownNow();
 		}
 	}
 
+	private static <T> T getUninterruptibly(Future<T> future) throws ExecutionException {
+		boolean interrupted = false;
+		try {
+			while (true) {
+				try {
+					return future.get();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		} finally {
+			if (interrupted) {
+				Thread.currentThread().interrupt();
+			}
+		}
+	}
+
+	/**
+	 * Cancel the reservations of a cart in one company, together with the
+	 * stored confirmation of the cart in that company.
+	 * 
+	 * When the group was confirmed by an earlier call, such as an earlier
+	 * delivery of the same cart, its reservations are found again through
+	 * the keys stored in its confirmation.
+	 * 
+	 * @param company
+	 *            name of the car rental company
+	 * @param token
+	 *            the token of the cart, or null
+	 * @param reservations
+	 *            the reservations of the cart in the company made by this
+	 *            call, which is empty if an earlier call made them
+	 */
+	protected void cancelGroup(final String company, final String token,
+			final List<Reservation> reservations) {
+		try {
+			runInTransaction(Collections.singleton(company), new TransactionalTask<Void>() {
+				@Override
+				public Void run(EntityManager em) {
+					CartConfirmation confirmation = findConfirmation(em, token,
+							Collections.singleton(company));
+					List<Reservation> cancelled = new ArrayList<>();
+					if (confirmation == null) {
+						// Not stored, so only this call made reservations
+						cancelled.addAll(reservations);
+					} else {
+						// Also covers the reservations of an earlier call
+						for (Key key : confirmation.getReservationKeys()) {
+							Reservation res = em.find(Reservation.class,
+									KeyFactory.keyToString(key));
+							if (res != null) {
+								cancelled.add(res);
+							}
+						}
+						em.remove(confirmation);
+					}
+					for (Reservation res : cancelled) {
+						cancelReservation(em, res);
+					}
+					return null;
+				}
+			});
+		} catch (ReservationException e) {
+			logger.log(Level.SEVERE, "<" + company + "> Could not cancel the reservations of cart "
+					+ token, e);
+			return;
+		}
+		snapshotCache.invalidate(company);
+	}
+
 	/**
 	 * Confirm the given list of quotes <strong>for one company</strong>.
 	 * 
+	 * @param token
+	 *            the token of the cart, or null
 	 * @param quotes
 	 *            the quotes to confirm
 	 * @return The list of reservations, resulting from confirming all given
@@ -213,30 +691,406 @@ public class CarRentalModel {
 	 *             One of the quotes cannot be confirmed. Therefore none of the
 	 *             given quotes is confirmed.
 	 */
-	protected List<Reservation> confirmQuotesInCompany(List<Quote> quotes)
+	protected List<Reservation> confirmQuotesInCompany(final String token,
+			final List<Quote> quotes) throws ReservationException {
+		final String company = quotes.get(0).getRentalCompany();
+		// Confirm the quotes inside a transaction
+		// This is allowed, as all the reservations belong to the same
+		// entity group (with the owning company as root entity)
+		List<Reservation> reservations;
+		try {
+			reservations = runInTransaction(Collections.singleton(company),
+					new TransactionalTask<List<Reservation>>() {
+						@Override
+						public List<Reservation> run(EntityManager em)
+								throws ReservationException {
+							CartConfirmation earlier = findConfirmation(em, token,
+									Collections.singleton(company));
+							if (earlier != null)
+								return getStoredOutcome(earlier);
+							List<Reservation> reservations = new ArrayList<>();
+							for (Quote q : quotes) {
+								reservations.add(confirmQuote(em, q));
+							}
+							recordConfirmed(em, token, Collections.singleton(company),
+									reservations);
+							return reservations;
+						}
+					});
+		} catch (ReservationException e) {
+			// The last attempt may have been applied although its commit
+			// reported a conflict
+			if (!isConfirmed(token, company))
+				throw e;
+			reservations = new ArrayList<>();
+		}
+		snapshotCache.invalidate(company);
+		return reservations;
+	}
+
+	/**
+	 * Confirm several carts <strong>for one company</strong> in a single
+	 * transaction.
+	 * 
+	 * Every cart is confirmed completely or not at all: when one of its quotes
+	 * fails, the reservations made for that cart are cancelled again before
+	 * the transaction commits. The other carts are not affected.
+	 * 
+	 * The outcome of every cart with a token is stored in the same
+	 * transaction, like {@link #confirmQuotes(String, List)} does. A cart
+	 * which was handled already by an earlier call gets its stored outcome.
+	 * 
+	 * @param company
+	 *            name of the car rental company
+	 * @param tokens
+	 *            the token of each cart, or null for a cart without one
+	 *            (which then gets a token of its own)
+	 * @param carts
+	 *            the quotes to confirm, per cart
+	 * @return For each cart, null if it was confirmed, or the reason why it
+	 *         could not be confirmed.
+	 * @throws ReservationException
+	 *             The transaction itself failed. Therefore none of the given
+	 *             carts is confirmed.
+	 */
+	public List<ReservationException> confirmCartsInCompany(final String company,
+			final List<String> tokens, final List<? extends List<Quote>> carts)
 			throws ReservationException {
-		EntityManager em = EMF.get().createEntityManager();
-		EntityTransaction t = em.getTransaction();
+		// Carts without a token get one of their own, to recognize a retried
+		// transaction which was applied already
+		final List<String> cartTokens = new ArrayList<>();
+		List<String> generatedTokens = new ArrayList<>();
+		for (String token : tokens) {
+			if (token != null) {
+				cartTokens.add(token);
+			} else {
+				String generatedToken = newToken();
+				cartTokens.add(generatedToken);
+				generatedTokens.add(generatedToken);
+			}
+		}
+		List<ReservationException> failures;
 		try {
-			// Confirm the quotes inside a transaction
-			// This is allowed, as all the reservations belong to the same
-			// entity group (with the owning company as root entity)
-			t.begin();
-			List<Reservation> reservations = new ArrayList<>();
-			for (Quote q : quotes) {
-				reservations.add(confirmQuote(em, q));
+			failures = runInTransaction(Collections.singleton(company),
+					new TransactionalTask<List<ReservationException>>() {
+						@Override
+						public List<ReservationException> run(EntityManager em) {
+							List<ReservationException> failures = new ArrayList<>();
+							for (int i = 0; i < carts.size(); i++) {
+								String token = cartTokens.get(i);
+								CartConfirmation earlier = findConfirmation(em, token,
+										Collections.singleton(company));
+								if (earlier != null) {
+									failures.add(earlier.isConfirmed() ? null
+											: new ReservationException(earlier.getFailure()));
+									continue;
+								}
+								List<Reservation> reservations = new ArrayList<>();
+								try {
+									for (Quote q : carts.get(i)) {
+										reservations.add(confirmQuote(em, q));
+									}
+									failures.add(null);
+									recordConfirmed(em, token, Collections.singleton(company),
+											reservations);
+								} catch (ReservationException e) {
+									// Undo this cart only
+									for (Reservation res : reservations) {
+										cancelReservation(em, res);
+									}
+									failures.add(e);
+									em.persist(new CartConfirmation(company, token,
+											getFailureMessage(e)));
+								}
+							}
+							return failures;
+						}
+					});
+			snapshotCache.invalidate(company);
+		} finally {
+			for (List<Quote> cart : carts) {
+				capacityHolds.release(cart);
 			}
-			t.commit();
-			return reservations;
+		}
+		if (!generatedTokens.isEmpty()) {
+			forgetConfirmations(Collections.singleton(company), generatedTokens);
+		}
+		return failures;
+	}
+
+	/**
+	 * Find the outcome of the cart with the given token, as stored in any of
+	 * the given companies.
+	 * 
+	 * @return The stored outcome, or null if the cart has no token or was not
+	 *         handled yet in any of the companies.
+	 */
+	protected CartConfirmation findConfirmation(EntityManager em, String token,
+			Collection<String> companies) {
+		if (token == null)
+			return null;
+		for (String company : companies) {
+			CartConfirmation confirmation = em.find(CartConfirmation.class,
+					CartConfirmation.getKey(company, token));
+			if (confirmation != null)
+				return confirmation;
+		}
+		return null;
+	}
+
+	/**
+	 * Store that the cart with the given token was confirmed in the given
+	 * companies, within the transaction of its reservations. The keys of the
+	 * reservations are stored with it, per company.
+	 */
+	protected void recordConfirmed(EntityManager em, String token, Collection<String> companies,
+			List<Reservation> reservations) {
+		if (token == null)
+			return;
+		// Assign the keys of the new reservations
+		em.flush();
+		for (String company : companies) {
+			List<Key> reservationKeys = new ArrayList<>();
+			for (Reservation res : reservations) {
+				if (res.getRentalCompany().equals(company)) {
+					reservationKeys.add(res.getKey());
+				}
+			}
+			em.persist(new CartConfirmation(company, token, reservationKeys));
+		}
+	}
+
+	/**
+	 * Store the failure of the cart with the given token, so that a later
+	 * call with the same token fails the same way. The failure is stored in
+	 * the first of the given companies, by name.
+	 */
+	protected void recordFailure(final String token, Collection<String> companies,
+			final ReservationException failure) {
+		if (token == null)
+			return;
+		final String company = Collections.min(companies);
+		try {
+			runInTransaction(Collections.singleton(company), new TransactionalTask<Void>() {
+				@Override
+				public Void run(EntityManager em) {
+					if (findConfirmation(em, token, Collections.singleton(company)) == null) {
+						em.persist(new CartConfirmation(company, token,
+								getFailureMessage(failure)));
+					}
+					return null;
+				}
+			});
 		} catch (ReservationException e) {
-			// Roll back the transaction
-			t.rollback();
-			throw e;
+			logger.log(Level.WARNING, "Could not store the failure of cart " + token, e);
+		}
+	}
+
+	/**
+	 * Check whether the cart with the given token was confirmed in the given
+	 * company, outside of any transaction.
+	 */
+	protected boolean isConfirmed(String token, String company) {
+		EntityManager em = EMF.get().createEntityManager();
+		try {
+			CartConfirmation confirmation = findConfirmation(em, token,
+					Collections.singleton(company));
+			return confirmation != null && confirmation.isConfirmed();
+		} finally {
+			em.close();
+		}
+	}
+
+	/**
+	 * Delete the stored outcomes of carts which were handled before the given
+	 * time, at most the given number at once.
+	 * 
+	 * @return The number of deleted outcomes.
+	 */
+	public int deleteConfirmationsBefore(Date before, int max) {
+		EntityManager em = EMF.get().createEntityManager();
+		try {
+			List<CartConfirmation> expired = em
+					.createNamedQuery("CartConfirmation.createdBefore", CartConfirmation.class)
+					.setParameter("before", before).setMaxResults(max).getResultList();
+			for (CartConfirmation confirmation : expired) {
+				em.remove(confirmation);
+			}
+			return expired.size();
 		} finally {
 			em.close();
 		}
 	}
 
+	/**
+	 * Delete the stored outcomes of the carts with the given tokens, which
+	 * were generated by this instance and can never be sent again. An
+	 * outcome which cannot be deleted now expires like any other.
+	 */
+	private void forgetConfirmations(Collection<String> companies, Collection<String> tokens) {
+		EntityManager em = EMF.get().createEntityManager();
+		try {
+			for (String company : companies) {
+				for (String token : tokens) {
+					CartConfirmation confirmation = em.find(CartConfirmation.class,
+							CartConfirmation.getKey(company, token));
+					if (confirmation != null) {
+						em.remove(confirmation);
+					}
+				}
+			}
+		} catch (RuntimeException e) {
+			logger.log(Level.WARNING, "<" + companies + "> Could not delete the outcomes of "
+					+ tokens.size() + " cart(s) without a token", e);
+		} finally {
+			em.close();
+		}
+	}
+
+	private static String newToken() {
+		return UUID.randomUUID().toString();
+	}
+
+	/**
+	 * Get the outcome of a cart which was handled by an earlier call.
+	 * 
+	 * @return An empty list, as the reservations were made by the earlier
+	 *         call.
+	 * @throws ReservationException
+	 *             The cart could not be confirmed by the earlier call.
+	 */
+	private static List<Reservation> getStoredOutcome(CartConfirmation confirmation)
+			throws ReservationException {
+		if (!confirmation.isConfirmed())
+			throw new ReservationException(confirmation.getFailure());
+		logger.log(Level.INFO, "<{0}> Cart {1} was confirmed already", new Object[] {
+				confirmation.getCompanyName(), confirmation.getToken() });
+		return new ArrayList<Reservation>();
+	}
+
+	private static String getFailureMessage(ReservationException e) {
+		return (e.getMessage() != null) ? e.getMessage() : e.toString();
+	}
+
+	/**
+	 * Work to be done inside a transaction.
+	 * 
+	 * A commit can report a concurrent modification although it was applied
+	 * after all, after which the task is run again. A task must therefore
+	 * recognize an earlier attempt which was applied, like the confirmations
+	 * do with their {@link CartConfirmation}, instead of applying its changes
+	 * twice.
+	 */
+	protected interface TransactionalTask<T> {
+
+		T run(EntityManager em) throws ReservationException;
+
+	}
+
+	/**
+	 * Run the given task inside a transaction on the given companies.
+	 * 
+	 * When the commit fails because of a concurrent modification, the whole
+	 * task is retried with a fresh entity manager after a jittered backoff,
+	 * up to the configured number of attempts. Since such a commit may still
+	 * have been applied, the task must be safe to run again (see
+	 * {@link TransactionalTask}).
+	 * 
+	 * Each attempt holds the locks of the given companies, so attempts on
+	 * the same instance never conflict with each other. The locks are
+	 * released during the backoff.
+	 * 
+	 * @param companies
+	 *            names of the car rental companies touched by the task
+	 * @param task
+	 *            the task to run
+	 * @return The result of the task.
+	 * @throws ReservationException
+	 *             The task failed, or the attempts ran out. The transaction
+	 *             is rolled back.
+	 */
+	protected <T> T runInTransaction(Collection<String> companies, TransactionalTask<T> task)
+			throws ReservationException {
+		for (int attempt = 1;; attempt++) {
+			List<Lock> locks = companyLocks.lockAll(companies);
+			EntityManager em = EMF.get().createEntityManager();
+			EntityTransaction t = em.getTransaction();
+			try {
+				t.begin();
+				T result = task.run(em);
+				t.commit();
+				return result;
+			} catch (RuntimeException e) {
+				if (!isConcurrentModification(e))
+					throw e;
+				recordConflict(companies, attempt);
+				if (!transactionRetryPolicy.canRetry(attempt))
+					throw new ReservationException("Reservation failed, " + companies
+							+ " is too busy right now. Please try again later.");
+			} finally {
+				// Roll back the transaction if it did not commit
+				if (t.isActive()) {
+					t.rollback();
+				}
+				em.close();
+				companyLocks.unlockAll(locks);
+			}
+			transactionRetryPolicy.backoff(attempt);
+		}
+	}
+
+	/**
+	 * Check whether the given exception was caused by a concurrent
+	 * modification of an entity group.
+	 * 
+	 * The datastore reports such a conflict as a
+	 * {@link ConcurrentModificationException}, which the persistence layer
+	 * wraps in a {@link PersistenceException}. A bare
+	 * {@link ConcurrentModificationException}, such as from modifying a
+	 * collection while iterating over it, is a bug and is not retried.
+	 */
+	protected boolean isConcurrentModification(Throwable e) {
+		boolean fromPersistence = false;
+		for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+			if (cause instanceof OptimisticLockException)
+				return true;
+			if (cause instanceof PersistenceException) {
+				fromPersistence = true;
+			} else if (fromPersistence && cause instanceof ConcurrentModificationException)
+				return true;
+		}
+		return false;
+	}
+
+	private void recordConflict(Collection<String> companies, int attempt) {
+		for (String company : companies) {
+			AtomicLong count = conflictCounts.get(company);
+			if (count == null) {
+				AtomicLong newCount = new AtomicLong();
+				count = conflictCounts.putIfAbsent(company, newCount);
+				if (count == null) {
+					count = newCount;
+				}
+			}
+			long total = count.incrementAndGet();
+			logger.log(Level.WARNING, "<{0}> Concurrent modification on attempt {1} "
+					+ "({2} conflicts so far)", new Object[] { company, attempt, total });
+		}
+	}
+
+	/**
+	 * Get the number of concurrent modification conflicts on the given
+	 * company, since this instance started.
+	 * 
+	 * @param crcName
+	 *            name of the car rental company
+	 * @return The number of conflicts.
+	 */
+	public long getConflictCount(String crcName) {
+		AtomicLong count = conflictCounts.get(crcName);
+		return (count == null) ? 0 : count.get();
+	}
+
 	/**
 	 * Group the given quotes by company.
 	 * 
@@ -264,11 +1118,14 @@ public class CarRentalModel {
 	 *            the reservation to confirm
 	 */
 	public void cancelReservation(Reservation res) {
+		List<Lock> locks = companyLocks.lockAll(Collections.singleton(res.getRentalCompany()));
 		EntityManager em = EMF.get().createEntityManager();
 		try {
 			cancelReservation(em, res);
 		} finally {
 			em.close();
+			snapshotCache.invalidate(res.getRentalCompany());
+			companyLocks.unlockAll(locks);
 		}
 	}
 
@@ -475,18 +1332,67 @@ public class CarRentalModel {
 				.setParameter("renterKey", Renter.getKey(renterName)).getResultList();
 	}
 
+	/**
+	 * Wait for notifications of the given car renter which are newer than
+	 * the given time, or at that time but not seen yet.
+	 * 
+	 * Notifications added on this instance are returned as soon as they are
+	 * added. Notifications added on other instances do not wake up the
+	 * waiting request, so the datastore is checked once when the timeout
+	 * elapses.
+	 * 
+	 * @param renterName
+	 *            name of the car renter
+	 * @param since
+	 *            the time of the newest notification the caller knows about
+	 * @param seen
+	 *            the keys of the notifications at that time which the caller
+	 *            knows about, since several may share the same millisecond
+	 * @param timeout
+	 *            the maximum time (in milliseconds) to wait
+	 * @return The newer notifications, newest first. This list is empty if
+	 *         none arrived before the timeout.
+	 */
+	public List<Notification> waitForNotifications(String renterName, Date since, Set<Key> seen,
+			long timeout) {
+		List<Notification> notifications = notificationSignals.await(renterName,
+				since.getTime(), seen, timeout);
+		if (!notifications.isEmpty())
+			return notifications;
+		EntityManager em = EMF.get().createEntityManager();
+		try {
+			notifications = new ArrayList<>();
+			for (Notification notification : em
+					.createNamedQuery("Notification.byRenterSince", Notification.class)
+					.setParameter("renterKey", Renter.getKey(renterName))
+					.setParameter("since", since).getResultList()) {
+				if (!seen.contains(notification.getKey())) {
+					notifications.add(notification);
+				}
+			}
+			return notifications;
+		} finally {
+			em.close();
+		}
+	}
+
 	public void addNotification(String renterName, String message) {
 		EntityManager em = EMF.get().createEntityManager();
+		Notification notification;
 		try {
-			addNotification(em, renterName, message);
+			notification = addNotification(em, renterName, message);
 		} finally {
 			em.close();
 		}
+		// Wake up the requests waiting for this renter
+		notificationSignals.raise(notification);
 	}
 
-	protected void addNotification(EntityManager em, String renterName, String message) {
+	protected Notification addNotification(EntityManager em, String renterName, String message) {
 		Renter renter = getRenter(em, renterName);
-		renter.addNotification(message, new Date());
+		Notification notification = new Notification(renterName, message, new Date());
+		renter.addNotification(notification);
+		return notification;
 	}
 
 }
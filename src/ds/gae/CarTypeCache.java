@@ -0,0 +1,135 @@
+package ds.gae;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.persistence.EntityManager;
+
+import com.google.appengine.api.datastore.Key;
+
+import ds.gae.entities.CarType;
+
+/**
+ * Process-wide cache of {@link CarType}s by their key.
+ *
+ * Car types are effectively immutable once registered, so a single cached
+ * instance can be shared by all cars of that type. The cache is bounded and
+ * evicts the least recently used car types first.
+ */
+public final class CarTypeCache {
+
+	private static final Logger logger = Logger.getLogger(CarTypeCache.class.getName());
+
+	private static final int MAX_SIZE = 256;
+
+	private static final CarTypeCache instance = new CarTypeCache(MAX_SIZE);
+
+	public static CarTypeCache get() {
+		return instance;
+	}
+
+	private final Map<Key, CarType> carTypes;
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+
+	/***************
+	 * CONSTRUCTOR *
+	 ***************/
+
+	private CarTypeCache(final int maxSize) {
+		this.carTypes = new LinkedHashMap<Key, CarType>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Key, CarType> eldest) {
+				return size() > maxSize;
+			}
+		};
+	}
+
+	/**********
+	 * LOOKUP *
+	 **********/
+
+	/**
+	 * Get the car type with the given key, loading it from the datastore if
+	 * it is not cached yet.
+	 *
+	 * @param key
+	 *            the key of the car type
+	 * @return The car type, or null if not found.
+	 */
+	public CarType getCarType(Key key) {
+		CarType carType;
+		synchronized (carTypes) {
+			carType = carTypes.get(key);
+		}
+		if (carType != null) {
+			hits.incrementAndGet();
+			return carType;
+		}
+
+		misses.incrementAndGet();
+		EntityManager em = EMF.get().createEntityManager();
+		try {
+			carType = em.find(CarType.class, key);
+		} finally {
+			em.close();
+		}
+		logger.log(Level.FINE, "Loaded car type {0} ({1} hits, {2} misses)",
+				new Object[] { key, getHits(), getMisses() });
+
+		if (carType != null) {
+			put(carType);
+		}
+		return carType;
+	}
+
+	/**
+	 * Add or replace the given car type in the cache.
+	 */
+	public void put(CarType carType) {
+		synchronized (carTypes) {
+			carTypes.put(carType.getKey(), carType);
+		}
+	}
+
+	/****************
+	 * INVALIDATION *
+	 ****************/
+
+	public void invalidate(Key key) {
+		synchronized (carTypes) {
+			carTypes.remove(key);
+		}
+	}
+
+	public void invalidateAll() {
+		synchronized (carTypes) {
+			carTypes.clear();
+		}
+	}
+
+	/***********
+	 * METRICS *
+	 ***********/
+
+	public long getHits() {
+		return hits.get();
+	}
+
+	public long getMisses() {
+		return misses.get();
+	}
+
+	public int size() {
+		synchronized (carTypes) {
+			return carTypes.size();
+		}
+	}
+
+}
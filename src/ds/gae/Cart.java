@@ -0,0 +1,226 @@
+package ds.gae;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+import ds.gae.entities.EpochDays;
+import ds.gae.entities.Quote;
+
+/**
+ * Compact cart of quotes, to be kept in the session of a renter.
+ * 
+ * Renter, company and car type names are interned in a dictionary and
+ * referred to by their index. A quote is stored as a row of these indices,
+ * its start and end day as epoch days, and its price in cents. The
+ * serialized form writes the dictionary once, followed by the rows.
+ * 
+ * Every cart has a unique id, which is used as the token of its
+ * confirmation. A cart can therefore only be confirmed once, even when an
+ * old copy of it is submitted again.
+ */
+public class Cart implements Serializable {
+
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * Number of ints per quote in {@link #rows}.
+	 */
+	private static final int ROW_SIZE = 5;
+	private static final int RENTER = 0;
+	private static final int COMPANY = 1;
+	private static final int CAR_TYPE = 2;
+	private static final int START_DAY = 3;
+	private static final int END_DAY = 4;
+
+	private String id;
+	private transient List<String> strings = new ArrayList<String>();
+	private transient Map<String, Integer> stringIds = new HashMap<String, Integer>();
+	private transient int[] rows = new int[4 * ROW_SIZE];
+	private transient long[] prices = new long[4];
+	private transient int size;
+
+	/***************
+	 * CONSTRUCTOR *
+	 ***************/
+
+	public Cart() {
+		this(UUID.randomUUID().toString());
+	}
+
+	public Cart(String id) {
+		this.id = id;
+	}
+
+	/**
+	 * Get the unique id of this cart.
+	 */
+	public String getId() {
+		return id;
+	}
+
+	/**********
+	 * QUOTES *
+	 **********/
+
+	public void add(Quote quote) {
+		if (size == prices.length) {
+			rows = Arrays.copyOf(rows, 2 * rows.length);
+			prices = Arrays.copyOf(prices, 2 * prices.length);
+		}
+		int offset = size * ROW_SIZE;
+		rows[offset + RENTER] = intern(quote.getCarRenter());
+		rows[offset + COMPANY] = intern(quote.getRentalCompany());
+		rows[offset + CAR_TYPE] = intern(quote.getCarType());
+		rows[offset + START_DAY] = quote.getStartDay();
+		rows[offset + END_DAY] = quote.getEndDay();
+		prices[size] = Math.round(quote.getRentalPrice() * 100);
+		size++;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	public boolean isEmpty() {
+		return size == 0;
+	}
+
+	/**
+	 * Get the names of the companies with quotes in this cart, in the order
+	 * in which they were first quoted.
+	 */
+	public Set<String> getCompanies() {
+		Set<String> companies = new LinkedHashSet<String>();
+		for (int i = 0; i < size; i++) {
+			companies.add(strings.get(rows[i * ROW_SIZE + COMPANY]));
+		}
+		return companies;
+	}
+
+	/**
+	 * Get all quotes in this cart, grouped by company.
+	 */
+	public ArrayList<Quote> getQuotes() {
+		ArrayList<Quote> quotes = new ArrayList<Quote>(size);
+		for (String company : getCompanies()) {
+			quotes.addAll(getQuotes(company));
+		}
+		return quotes;
+	}
+
+	/**
+	 * Get the quotes in this cart of the given company.
+	 */
+	public List<Quote> getQuotes(String company) {
+		List<Quote> quotes = new ArrayList<Quote>();
+		Integer companyId = stringIds.get(company);
+		if (companyId == null)
+			return quotes;
+		for (int i = 0; i < size; i++) {
+			if (rows[i * ROW_SIZE + COMPANY] == companyId) {
+				quotes.add(getQuote(i));
+			}
+		}
+		return quotes;
+	}
+
+	private Quote getQuote(int index) {
+		int offset = index * ROW_SIZE;
+		return new Quote(strings.get(rows[offset + RENTER]),
+				EpochDays.toDate(rows[offset + START_DAY]),
+				EpochDays.toDate(rows[offset + END_DAY]),
+				strings.get(rows[offset + COMPANY]),
+				strings.get(rows[offset + CAR_TYPE]),
+				prices[index] / 100.0);
+	}
+
+	private int intern(String string) {
+		Integer id = stringIds.get(string);
+		if (id == null) {
+			id = strings.size();
+			strings.add(string);
+			stringIds.put(string, id);
+		}
+		return id;
+	}
+
+	/*****************
+	 * SERIALIZATION *
+	 *****************/
+
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		writeTo(out);
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		if (id == null) {
+			// Stored before carts had an id
+			id = UUID.randomUUID().toString();
+		}
+		readFields(in);
+	}
+
+	/**
+	 * Write the quotes of this cart in a compact binary form, without its id.
+	 */
+	public void writeTo(DataOutput out) throws IOException {
+		out.writeInt(strings.size());
+		for (String string : strings) {
+			out.writeUTF(string);
+		}
+		out.writeInt(size);
+		for (int i = 0; i < size * ROW_SIZE; i++) {
+			out.writeInt(rows[i]);
+		}
+		for (int i = 0; i < size; i++) {
+			out.writeLong(prices[i]);
+		}
+	}
+
+	/**
+	 * Read a cart written by {@link #writeTo(DataOutput)}.
+	 * 
+	 * @param id
+	 *            the id of the cart
+	 * @param in
+	 *            the input to read the quotes from
+	 */
+	public static Cart readFrom(String id, DataInput in) throws IOException {
+		Cart cart = new Cart(id);
+		cart.readFields(in);
+		return cart;
+	}
+
+	private void readFields(DataInput in) throws IOException {
+		int nbOfStrings = in.readInt();
+		strings = new ArrayList<String>(nbOfStrings);
+		stringIds = new HashMap<String, Integer>();
+		for (int i = 0; i < nbOfStrings; i++) {
+			intern(in.readUTF());
+		}
+		size = in.readInt();
+		rows = new int[Math.max(size, 4) * ROW_SIZE];
+		prices = new long[Math.max(size, 4)];
+		for (int i = 0; i < size * ROW_SIZE; i++) {
+			rows[i] = in.readInt();
+		}
+		for (int i = 0; i < size; i++) {
+			prices[i] = in.readLong();
+		}
+	}
+
+}
@@ -0,0 +1,62 @@
+package ds.gae;
+
+import java.io.IOException;
+import java.util.Date;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import ds.gae.entities.CartConfirmation;
+
+/**
+ * Deletes the expired {@link CartConfirmation}s, run periodically from
+ * {@code cron.xml}.
+ * 
+ * A cart is no longer delivered once its task is older than the task age
+ * limit of the confirmation queues (12 hours), so its stored outcome is no
+ * longer needed either. Outcomes are kept for a while longer, configured by
+ * {@code ds.gae.confirm.retention}.
+ */
+public class CartConfirmationCleanup extends HttpServlet {
+	private static final long serialVersionUID = -2271586503946411872L;
+
+	private static final Logger logger = Logger.getLogger(CartConfirmationCleanup.class
+			.getName());
+
+	/**
+	 * Maximum number of outcomes to delete at once.
+	 */
+	private static final int BATCH_SIZE = 200;
+
+	/**
+	 * Maximum number of batches to delete in a single request. The rest is
+	 * left for the next run.
+	 */
+	private static final int MAX_BATCHES = 50;
+
+	/**
+	 * Time (in milliseconds) to keep the outcome of a cart.
+	 */
+	private final long retention = Long.getLong("ds.gae.confirm.retention",
+			24 * 60 * 60 * 1000L);
+
+	@Override
+	protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+			throws ServletException, IOException {
+		Date before = new Date(System.currentTimeMillis() - retention);
+		int total = 0;
+		for (int batch = 0; batch < MAX_BATCHES; batch++) {
+			int deleted = CarRentalModel.get().deleteConfirmationsBefore(before, BATCH_SIZE);
+			total += deleted;
+			if (deleted < BATCH_SIZE)
+				break;
+		}
+		logger.log(Level.INFO, "Deleted {0} cart confirmations from before {1}", new Object[] {
+				total, before });
+	}
+
+}
@@ -0,0 +1,185 @@
+package ds.gae;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.security.GeneralSecurityException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+import javax.xml.bind.DatatypeConverter;
+
+/**
+ * Signed tokens holding a {@link Cart}, to be kept by the client instead of
+ * in the session.
+ * 
+ * A token is the URL-safe Base64 encoding of a version byte, the time at
+ * which it was issued, the id and quotes of the cart and an HMAC-SHA256
+ * signature. The signature also covers the name of the renter, so a token is
+ * only accepted for the renter it was issued to.
+ * 
+ * A token is a bearer value, which cannot be revoked. Two things limit what
+ * an old copy of it can do. It expires together with the holds of its
+ * quotes, or sooner. And the id of its cart is the token of the
+ * confirmation, which is consumed by the first confirmation of the cart,
+ * so confirming an old copy again has no effect.
+ * 
+ * Tokens are only enabled when a secret is configured, which must be the
+ * same on all instances.
+ */
+public class CartTokens {
+
+	private static final Logger logger = Logger.getLogger(CartTokens.class.getName());
+
+	private static final String ALGORITHM = "HmacSHA256";
+
+	private static final int VERSION = 2;
+
+	private static final int SIGNATURE_LENGTH = 32;
+
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+
+	private static final CartTokens instance = new CartTokens();
+
+	public static CartTokens get() {
+		return instance;
+	}
+
+	private final SecretKeySpec key;
+
+	/**
+	 * Time (in milliseconds) after which a token is no longer accepted. This
+	 * is never longer than the holds of the quotes.
+	 */
+	private final long ttl;
+
+	/***************
+	 * CONSTRUCTOR *
+	 ***************/
+
+	private CartTokens() {
+		long holdTtl = Long.getLong("ds.gae.quote.holdTtl", 10 * 60 * 1000L);
+		this.ttl = Math.min(Long.getLong("ds.gae.cart.tokenTtl", holdTtl), holdTtl);
+		String secret = System.getProperty("ds.gae.cart.secret");
+		if (!Boolean.getBoolean("ds.gae.cart.tokens")) {
+			this.key = null;
+		} else if (secret == null || secret.isEmpty()) {
+			logger.log(Level.SEVERE, "Cart tokens require ds.gae.cart.secret, "
+					+ "keeping carts in the session instead");
+			this.key = null;
+		} else {
+			this.key = new SecretKeySpec(secret.getBytes(UTF8), ALGORITHM);
+		}
+	}
+
+	public boolean isEnabled() {
+		return key != null;
+	}
+
+	/**
+	 * Create a token holding the given cart.
+	 * 
+	 * @param cart
+	 *            the cart
+	 * @param renter
+	 *            name of the renter who owns the cart
+	 * @return The signed token.
+	 */
+	public String encode(Cart cart, String renter) {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bos)) {
+			out.writeByte(VERSION);
+			out.writeLong(System.currentTimeMillis());
+			out.writeUTF(cart.getId());
+			cart.writeTo(out);
+		} catch (IOException e) {
+			// Cannot happen on a byte array
+			throw new IllegalStateException(e);
+		}
+		byte[] payload = bos.toByteArray();
+		byte[] signature = sign(payload, renter);
+		byte[] token = Arrays.copyOf(payload, payload.length + SIGNATURE_LENGTH);
+		System.arraycopy(signature, 0, token, payload.length, SIGNATURE_LENGTH);
+		return toBase64Url(token);
+	}
+
+	/**
+	 * Validate the given token, and read its cart.
+	 * 
+	 * @param token
+	 *            the token
+	 * @param renter
+	 *            name of the current renter
+	 * @return The cart, or null if the token is malformed or has an invalid
+	 *         signature (for example because it was issued to another
+	 *         renter).
+	 * @throws ReservationException
+	 *             The token is valid, but has expired together with the
+	 *             holds of its quotes.
+	 */
+	public Cart decode(String token, String renter) throws ReservationException {
+		byte[] bytes;
+		try {
+			bytes = fromBase64Url(token);
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+		if (bytes.length <= SIGNATURE_LENGTH)
+			return null;
+		byte[] payload = Arrays.copyOf(bytes, bytes.length - SIGNATURE_LENGTH);
+		byte[] signature = Arrays.copyOfRange(bytes, payload.length, bytes.length);
+		// Compare in constant time
+		if (!MessageDigest.isEqual(signature, sign(payload, renter)))
+			return null;
+
+		try (DataInputStream in = new DataInputStream(new ByteArrayInputStream(payload))) {
+			if (in.readUnsignedByte() != VERSION)
+				return null;
+			long issuedAt = in.readLong();
+			if (System.currentTimeMillis() - issuedAt > ttl)
+				throw new ReservationException("Your cart has expired. Please create your "
+						+ "quotes again.");
+			String id = in.readUTF();
+			return Cart.readFrom(id, in);
+		} catch (IOException e) {
+			return null;
+		}
+	}
+
+	private byte[] sign(byte[] payload, String renter) {
+		try {
+			Mac mac = Mac.getInstance(ALGORITHM);
+			mac.init(key);
+			mac.update(String.valueOf(renter).getBytes(UTF8));
+			mac.update((byte) 0);
+			return mac.doFinal(payload);
+		} catch (GeneralSecurityException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String toBase64Url(byte[] bytes) {
+		String base64 = DatatypeConverter.printBase64Binary(bytes);
+		int end = base64.length();
+		while (end > 0 && base64.charAt(end - 1) == '=') {
+			end--;
+		}
+		return base64.substring(0, end).replace('+', '-').replace('/', '_');
+	}
+
+	private static byte[] fromBase64Url(String base64Url) {
+		StringBuilder base64 = new StringBuilder(base64Url.replace('-', '+').replace('_', '/'));
+		while (base64.length() % 4 != 0) {
+			base64.append('=');
+		}
+		return DatatypeConverter.parseBase64Binary(base64.toString());
+	}
+
+}
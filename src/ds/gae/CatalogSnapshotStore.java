@@ -0,0 +1,150 @@
+package ds.gae;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.persistence.EntityManager;
+
+import ds.gae.entities.CarRentalCompany;
+import ds.gae.entities.CatalogSnapshot;
+import ds.gae.entities.CompanySnapshot;
+
+/**
+ * Stores and loads the {@link CatalogSnapshot}.
+ * 
+ * The snapshot holds a {@link CompanySnapshot} of every company, in a
+ * versioned and compressed binary format. Its availability may be outdated
+ * by the time it is loaded, so loaded company snapshots still have to be
+ * validated against the version of their company before use.
+ */
+public class CatalogSnapshotStore {
+
+	private static final Logger logger = Logger.getLogger(CatalogSnapshotStore.class.getName());
+
+	private static final String SNAPSHOT_NAME = "catalog";
+
+	/**
+	 * Version of the binary format, to be bumped on incompatible changes.
+	 */
+	private static final int FORMAT_VERSION = 1;
+
+	/**
+	 * Maximum size (in bytes) of a snapshot, safely below the maximum size of
+	 * an entity.
+	 */
+	private static final int MAX_SIZE = 900 * 1024;
+
+	private final CarRentalModel model;
+
+	/***************
+	 * CONSTRUCTOR *
+	 ***************/
+
+	public CatalogSnapshotStore(CarRentalModel model) {
+		this.model = model;
+	}
+
+	/**
+	 * Rebuild the snapshot from the current state of all companies.
+	 * 
+	 * When the snapshot would grow too large, the stored snapshot is removed
+	 * instead, so no outdated catalog is ever loaded.
+	 */
+	public void rebuild() {
+		EntityManager em = EMF.get().createEntityManager();
+		try {
+			List<CompanySnapshot> snapshots = new ArrayList<CompanySnapshot>();
+			for (String companyName : model.getAllRentalCompanyNames(em)) {
+				CarRentalCompany crc = model.getRentalCompany(em, companyName);
+				if (crc != null) {
+					snapshots.add(crc.createSnapshot());
+				}
+			}
+
+			byte[] data = encode(snapshots);
+			CatalogSnapshot stored = em.find(CatalogSnapshot.class, SNAPSHOT_NAME);
+			if (data.length > MAX_SIZE) {
+				logger.log(Level.WARNING, "Catalog snapshot of {0} bytes is too large to store",
+						data.length);
+				if (stored != null) {
+					em.remove(stored);
+				}
+			} else if (stored != null) {
+				stored.setData(data);
+			} else {
+				em.persist(new CatalogSnapshot(SNAPSHOT_NAME, data));
+			}
+			logger.log(Level.INFO, "Rebuilt catalog snapshot of {0} companies in {1} bytes",
+					new Object[] { snapshots.size(), data.length });
+		} catch (IOException e) {
+			logger.log(Level.SEVERE, "Could not rebuild the catalog snapshot", e);
+		} finally {
+			em.close();
+		}
+	}
+
+	/**
+	 * Load the stored snapshot.
+	 * 
+	 * @return The snapshots of all companies, or null if there is no usable
+	 *         snapshot.
+	 */
+	public List<CompanySnapshot> load() {
+		EntityManager em = EMF.get().createEntityManager();
+		CatalogSnapshot stored;
+		try {
+			stored = em.find(CatalogSnapshot.class, SNAPSHOT_NAME);
+		} finally {
+			em.close();
+		}
+		if (stored == null)
+			return null;
+		try {
+			return decode(stored.getData());
+		} catch (IOException e) {
+			logger.log(Level.WARNING, "Ignoring unreadable catalog snapshot", e);
+			return null;
+		}
+	}
+
+	/************
+	 * ENCODING *
+	 ************/
+
+	private static byte[] encode(List<CompanySnapshot> snapshots) throws IOException {
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		bos.write(FORMAT_VERSION);
+		try (DataOutputStream out = new DataOutputStream(new DeflaterOutputStream(bos))) {
+			out.writeInt(snapshots.size());
+			for (CompanySnapshot snapshot : snapshots) {
+				snapshot.writeTo(out);
+			}
+		}
+		return bos.toByteArray();
+	}
+
+	private static List<CompanySnapshot> decode(byte[] data) throws IOException {
+		ByteArrayInputStream bis = new ByteArrayInputStream(data);
+		int version = bis.read();
+		if (version != FORMAT_VERSION)
+			throw new IOException("Unsupported catalog snapshot version " + version);
+		try (DataInputStream in = new DataInputStream(new InflaterInputStream(bis))) {
+			int nbOfCompanies = in.readInt();
+			List<CompanySnapshot> snapshots = new ArrayList<CompanySnapshot>(nbOfCompanies);
+			for (int i = 0; i < nbOfCompanies; i++) {
+				snapshots.add(CompanySnapshot.readFrom(in));
+			}
+			return snapshots;
+		}
+	}
+
+}
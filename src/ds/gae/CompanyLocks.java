@@ -0,0 +1,67 @@
+package ds.gae;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.TreeSet;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Striped locks to serialize the reservation changes of a company within
+ * this instance.
+ * 
+ * Concurrent requests on the same instance would otherwise each load their
+ * own copy of the company and only find out at commit that they conflict.
+ * Every company maps to one of a fixed number of locks, so unrelated
+ * companies rarely wait on each other.
+ */
+public class CompanyLocks {
+
+	private final Lock[] stripes;
+
+	public CompanyLocks(int nbOfStripes) {
+		stripes = new Lock[nbOfStripes];
+		for (int i = 0; i < nbOfStripes; i++) {
+			stripes[i] = new ReentrantLock();
+		}
+	}
+
+	private int getStripe(String company) {
+		// Spread the hash bits before reducing them to a stripe
+		int hash = company.hashCode();
+		hash ^= (hash >>> 16);
+		return (hash & 0x7fffffff) % stripes.length;
+	}
+
+	/**
+	 * Acquire the locks of all given companies.
+	 * 
+	 * The locks are always acquired in the same order, so callers locking
+	 * overlapping sets of companies cannot deadlock.
+	 * 
+	 * @param companies
+	 *            names of the car rental companies
+	 * @return The acquired locks, to be passed to {@link #unlockAll(List)}.
+	 */
+	public List<Lock> lockAll(Collection<String> companies) {
+		TreeSet<Integer> indices = new TreeSet<Integer>();
+		for (String company : companies) {
+			indices.add(getStripe(company));
+		}
+		List<Lock> locks = new ArrayList<Lock>(indices.size());
+		for (int index : indices) {
+			Lock lock = stripes[index];
+			lock.lock();
+			locks.add(lock);
+		}
+		return locks;
+	}
+
+	public void unlockAll(List<Lock> locks) {
+		for (int i = locks.size() - 1; i >= 0; i--) {
+			locks.get(i).unlock();
+		}
+	}
+
+}
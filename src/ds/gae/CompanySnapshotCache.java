@@ -0,0 +1,104 @@
+package ds.gae;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.persistence.EntityManager;
+
+import ds.gae.entities.CarRentalCompany;
+import ds.gae.entities.CompanySnapshot;
+
+/**
+ * Per-instance cache of {@link CompanySnapshot}s by company name.
+ *
+ * A cached snapshot is trusted for a short while after it was last
+ * validated. After that, only the root entity of the company is read to
+ * compare its version stamp, and the whole company is only reloaded when
+ * that version has changed.
+ */
+public class CompanySnapshotCache {
+
+	/**
+	 * Time (in milliseconds) during which a snapshot is used without checking
+	 * its version against the datastore.
+	 */
+	private static final long REVALIDATE_INTERVAL = 5 * 1000L;
+
+	private final CarRentalModel model;
+
+	private final ConcurrentMap<String, CachedSnapshot> snapshots = new ConcurrentHashMap<>();
+
+	/***************
+	 * CONSTRUCTOR *
+	 ***************/
+
+	public CompanySnapshotCache(CarRentalModel model) {
+		this.model = model;
+	}
+
+	/**
+	 * Get an up-to-date snapshot of the given company.
+	 *
+	 * @param em
+	 *            the entity manager to use when (re)validating
+	 * @param companyName
+	 *            name of the car rental company
+	 * @return The snapshot, or null if the company was not found.
+	 */
+	public CompanySnapshot getSnapshot(EntityManager em, String companyName) {
+		long now = System.currentTimeMillis();
+		CachedSnapshot cached = snapshots.get(companyName);
+		if (cached != null && now - cached.validatedAt < REVALIDATE_INTERVAL)
+			return cached.snapshot;
+
+		// Only loads the root entity, its relations are fetched lazily
+		CarRentalCompany crc = em.find(CarRentalCompany.class, companyName);
+		if (crc == null) {
+			snapshots.remove(companyName);
+			return null;
+		}
+
+		CompanySnapshot snapshot;
+		if (cached != null && cached.snapshot.getVersion() == crc.getVersion()) {
+			snapshot = cached.snapshot;
+		} else {
+			snapshot = model.loadCars(em, crc).createSnapshot();
+		}
+		snapshots.put(companyName, new CachedSnapshot(snapshot, now));
+		return snapshot;
+	}
+
+	/**
+	 * Drop the snapshot of the given company, for example after its
+	 * reservations were changed by this instance.
+	 */
+	public void invalidate(String companyName) {
+		snapshots.remove(companyName);
+	}
+
+	/**
+	 * Add a snapshot which was not loaded by this cache, unless the cache
+	 * holds a snapshot of its company already. It is validated against the
+	 * datastore on first use.
+	 */
+	public void prime(CompanySnapshot snapshot) {
+		snapshots.putIfAbsent(snapshot.getName(), new CachedSnapshot(snapshot, 0L));
+	}
+
+	public void invalidateAll() {
+		snapshots.clear();
+	}
+
+	private static class CachedSnapshot {
+
+		private final CompanySnapshot snapshot;
+		private final long validatedAt;
+
+		private CachedSnapshot(CompanySnapshot snapshot, long validatedAt) {
+			this.snapshot = snapshot;
+			this.validatedAt = validatedAt;
+		}
+
+	}
+
+}
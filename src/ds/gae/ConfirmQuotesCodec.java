@@ -0,0 +1,260 @@
+package ds.gae;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ds.gae.entities.EpochDays;
+import ds.gae.entities.Quote;
+
+/**
+ * Compact binary format for {@link ConfirmQuotesParams} task payloads.
+ * 
+ * A payload starts with a magic byte and a version byte, followed by a
+ * dictionary of all strings (renters, companies, car types and the token).
+ * Every quote then refers to its strings by their index in the dictionary,
+ * and stores its dates as epoch days and its price in cents. Dates and
+ * prices which do not fit this form are stored in full. All integers are
+ * varints.
+ */
+public class ConfirmQuotesCodec {
+
+	/**
+	 * First byte of every payload. Java serialization streams start with
+	 * {@code 0xAC}, so both formats can be told apart.
+	 */
+	static final int MAGIC = 0xC5;
+
+	private static final int VERSION = 1;
+
+	/**
+	 * Flag of a quote with dates which are not at the start of their day.
+	 */
+	private static final int FLAG_FULL_DATES = 1;
+	/**
+	 * Flag of a quote with a price which is not a whole number of cents.
+	 */
+	private static final int FLAG_FULL_PRICE = 2;
+
+	/**
+	 * Maximum size of a task payload. Counts read from a payload are checked
+	 * against it before anything is allocated for them.
+	 */
+	private static final int MAX_PAYLOAD_SIZE = 1024 * 1024;
+	/**
+	 * Minimum encoded size of a string, i.e. its length.
+	 */
+	private static final int MIN_STRING_SIZE = 2;
+	/**
+	 * Minimum encoded size of a quote, i.e. one byte for each of its flags,
+	 * strings, days and price.
+	 */
+	private static final int MIN_QUOTE_SIZE = 7;
+
+	private ConfirmQuotesCodec() {
+	}
+
+	/************
+	 * ENCODING *
+	 ************/
+
+	public static byte[] encode(ConfirmQuotesParams params) {
+		// Collect the strings in order of first use
+		Map<String, Integer> dictionary = new HashMap<String, Integer>();
+		List<String> strings = new ArrayList<String>();
+		addString(dictionary, strings, params.getRenter());
+		addString(dictionary, strings, params.getToken());
+		for (Quote quote : params.getQuotes()) {
+			addString(dictionary, strings, quote.getCarRenter());
+			addString(dictionary, strings, quote.getRentalCompany());
+			addString(dictionary, strings, quote.getCarType());
+		}
+
+		ByteArrayOutputStream bos = new ByteArrayOutputStream();
+		try (DataOutputStream out = new DataOutputStream(bos)) {
+			out.writeByte(MAGIC);
+			out.writeByte(VERSION);
+			writeVarLong(out, strings.size());
+			for (String string : strings) {
+				out.writeUTF(string);
+			}
+			writeStringRef(out, dictionary, params.getRenter());
+			writeStringRef(out, dictionary, params.getToken());
+			writeVarLong(out, params.getQuotes().size());
+			for (Quote quote : params.getQuotes()) {
+				writeQuote(out, dictionary, quote);
+			}
+		} catch (IOException e) {
+			// Cannot happen on a byte array
+			throw new IllegalStateException(e);
+		}
+		return bos.toByteArray();
+	}
+
+	private static void addString(Map<String, Integer> dictionary, List<String> strings,
+			String string) {
+		if (string != null && !dictionary.containsKey(string)) {
+			dictionary.put(string, strings.size());
+			strings.add(string);
+		}
+	}
+
+	/**
+	 * Write a reference to a string in the dictionary, with zero for null.
+	 */
+	private static void writeStringRef(DataOutputStream out, Map<String, Integer> dictionary,
+			String string) throws IOException {
+		writeVarLong(out, (string == null) ? 0 : dictionary.get(string) + 1);
+	}
+
+	private static void writeQuote(DataOutputStream out, Map<String, Integer> dictionary,
+			Quote quote) throws IOException {
+		Date start = quote.getStartDate();
+		Date end = quote.getEndDate();
+		int startDay = EpochDays.fromDate(start);
+		int endDay = EpochDays.fromDate(end);
+		double price = quote.getRentalPrice();
+		long cents = Math.round(price * 100);
+
+		int flags = 0;
+		if (!start.equals(EpochDays.toDate(startDay)) || !end.equals(EpochDays.toDate(endDay))) {
+			flags |= FLAG_FULL_DATES;
+		}
+		if (cents / 100.0 != price) {
+			flags |= FLAG_FULL_PRICE;
+		}
+
+		writeVarLong(out, flags);
+		writeStringRef(out, dictionary, quote.getCarRenter());
+		writeStringRef(out, dictionary, quote.getRentalCompany());
+		writeStringRef(out, dictionary, quote.getCarType());
+		if ((flags & FLAG_FULL_DATES) != 0) {
+			out.writeLong(start.getTime());
+			out.writeLong(end.getTime());
+		} else {
+			writeVarLong(out, zigZag(startDay));
+			writeVarLong(out, zigZag(endDay - startDay));
+		}
+		if ((flags & FLAG_FULL_PRICE) != 0) {
+			out.writeDouble(price);
+		} else {
+			writeVarLong(out, zigZag(cents));
+		}
+	}
+
+	private static void writeVarLong(DataOutputStream out, long value) throws IOException {
+		while ((value & ~0x7FL) != 0) {
+			out.writeByte((int) ((value & 0x7F) | 0x80));
+			value >>>= 7;
+		}
+		out.writeByte((int) value);
+	}
+
+	private static long zigZag(long value) {
+		return (value << 1) ^ (value >> 63);
+	}
+
+	/************
+	 * DECODING *
+	 ************/
+
+	/**
+	 * Decode a payload, of which the magic byte was read already.
+	 * 
+	 * @throws IOException
+	 *             The payload is truncated, or has an unknown version.
+	 */
+	static ConfirmQuotesParams decodeAfterMagic(InputStream is) throws IOException {
+		DataInputStream in = new DataInputStream(is);
+		int version = in.readUnsignedByte();
+		if (version != VERSION)
+			throw new IOException("Unsupported payload version " + version);
+
+		int nbOfStrings = readCount(in, MIN_STRING_SIZE);
+		String[] strings = new String[nbOfStrings];
+		for (int i = 0; i < nbOfStrings; i++) {
+			strings[i] = in.readUTF();
+		}
+		String renter = readStringRef(in, strings);
+		String token = readStringRef(in, strings);
+		int nbOfQuotes = readCount(in, MIN_QUOTE_SIZE);
+		ArrayList<Quote> quotes = new ArrayList<Quote>(nbOfQuotes);
+		for (int i = 0; i < nbOfQuotes; i++) {
+			quotes.add(readQuote(in, strings));
+		}
+		return new ConfirmQuotesParams(quotes, renter, token);
+	}
+
+	/**
+	 * Read the number of elements which follow, each taking at least the
+	 * given number of bytes.
+	 * 
+	 * @throws IOException
+	 *             The count cannot fit in a payload.
+	 */
+	private static int readCount(DataInputStream in, int minSize) throws IOException {
+		long count = readVarLong(in);
+		if (count < 0 || count > MAX_PAYLOAD_SIZE / minSize)
+			throw new IOException("Invalid count " + count);
+		return (int) count;
+	}
+
+	private static String readStringRef(DataInputStream in, String[] strings) throws IOException {
+		long ref = readVarLong(in);
+		if (ref == 0)
+			return null;
+		if (ref > strings.length)
+			throw new IOException("Invalid string reference " + ref);
+		return strings[(int) ref - 1];
+	}
+
+	private static Quote readQuote(DataInputStream in, String[] strings) throws IOException {
+		int flags = (int) readVarLong(in);
+		String carRenter = readStringRef(in, strings);
+		String rentalCompany = readStringRef(in, strings);
+		String carType = readStringRef(in, strings);
+		Date start, end;
+		if ((flags & FLAG_FULL_DATES) != 0) {
+			start = new Date(in.readLong());
+			end = new Date(in.readLong());
+		} else {
+			int startDay = (int) unZigZag(readVarLong(in));
+			int endDay = startDay + (int) unZigZag(readVarLong(in));
+			start = EpochDays.toDate(startDay);
+			end = EpochDays.toDate(endDay);
+		}
+		double price;
+		if ((flags & FLAG_FULL_PRICE) != 0) {
+			price = in.readDouble();
+		} else {
+			price = unZigZag(readVarLong(in)) / 100.0;
+		}
+		return new Quote(carRenter, start, end, rentalCompany, carType, price);
+	}
+
+	private static long readVarLong(DataInputStream in) throws IOException {
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7) {
+			int b = in.read();
+			if (b < 0)
+				throw new EOFException();
+			value |= (long) (b & 0x7F) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new IOException("Malformed varint");
+	}
+
+	private static long unZigZag(long value) {
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+}
@@ -2,6 +2,7 @@ package ds.gae;
 
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.UUID;
 
 import ds.gae.entities.Quote;
 
@@ -11,10 +12,19 @@ public class ConfirmQuotesParams implements Serializable {
 
 	private final ArrayList<Quote> quotes;
 	private final String renter;
+	/**
+	 * Unique token of this cart, to recognize redelivered confirmations.
+	 */
+	private final String token;
 
 	public ConfirmQuotesParams(ArrayList<Quote> quotes, String renter) {
+		this(quotes, renter, UUID.randomUUID().toString());
+	}
+
+	public ConfirmQuotesParams(ArrayList<Quote> quotes, String renter, String token) {
 		this.quotes = quotes;
 		this.renter = renter;
+		this.token = token;
 	}
 
 	public ArrayList<Quote> getQuotes() {
@@ -25,4 +35,14 @@ public class ConfirmQuotesParams implements Serializable {
 		return renter;
 	}
 
+	/**
+	 * Get the unique token of this cart.
+	 * 
+	 * @return The token, or null for carts queued before tokens were
+	 *         introduced.
+	 */
+	public String getToken() {
+		return token;
+	}
+
 }
@@ -0,0 +1,210 @@
+package ds.gae;
+
+import java.util.TreeSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.QueueStatistics;
+import com.google.appengine.api.taskqueue.TaskAlreadyExistsException;
+import com.google.appengine.api.taskqueue.TaskOptions;
+
+import ds.gae.entities.Quote;
+
+/**
+ * Hands confirmed carts to the background workers.
+ * 
+ * Carts are spread over a number of shards by company, so a backlog of one
+ * busy company only delays the companies in the same shard. Every shard has
+ * its own push queue {@code confirm-<shard>}, of which the processing rate
+ * and concurrency are configured in {@code queue.xml}.
+ * 
+ * By default, every cart is pushed as its own task to the {@link Worker}.
+ * When batching is enabled, carts are added to the {@link ConfirmationQueue}
+ * of their shard instead, which is drained periodically by the
+ * {@link BatchWorker}.
+ */
+public class ConfirmationDispatcher {
+
+	private static final Logger logger = Logger.getLogger(ConfirmationDispatcher.class.getName());
+
+	/**
+	 * Time (in milliseconds) during which carts are coalesced into the same
+	 * batch.
+	 */
+	private static final long DRAIN_INTERVAL = 1000L;
+
+	private static final String SHARD_QUEUE_PREFIX = "confirm-";
+
+	/**
+	 * Time (in milliseconds) during which the fetched statistics of a shard
+	 * are reused for estimating the wait.
+	 */
+	private static final long STATISTICS_TTL = 5000L;
+
+	private static final ConfirmationDispatcher instance = new ConfirmationDispatcher();
+
+	public static ConfirmationDispatcher get() {
+		return instance;
+	}
+
+	private final boolean batching;
+	private final int nbOfShards;
+	private final ConfirmationQueue[] batchQueues;
+	private final CachedStatistics[] shardStatistics;
+
+	/***************
+	 * CONSTRUCTOR *
+	 ***************/
+
+	private ConfirmationDispatcher() {
+		this.batching = Boolean.getBoolean("ds.gae.confirm.batching");
+		this.nbOfShards = Math.max(1, Integer.getInteger("ds.gae.confirm.shards", 4));
+		String queueName = System.getProperty("ds.gae.confirm.batchQueue", "confirm-pull");
+		this.batchQueues = new ConfirmationQueue[nbOfShards];
+		for (int shard = 0; shard < nbOfShards; shard++) {
+			if ("local".equals(queueName)) {
+				batchQueues[shard] = new LocalConfirmationQueue();
+			} else {
+				batchQueues[shard] = new PullConfirmationQueue(queueName + "-" + shard);
+			}
+		}
+		this.shardStatistics = new CachedStatistics[nbOfShards];
+	}
+
+	/**
+	 * Queue the given cart for confirmation.
+	 */
+	public void dispatch(ConfirmQuotesParams params) {
+		int shard = getShard(params);
+		if (batching) {
+			batchQueues[shard].add(params);
+			scheduleDrain(shard);
+		} else {
+			byte[] serializedParams = SerializationUtils.serialize(params);
+			// Create task and add it to the queue of its shard
+			TaskOptions options = TaskOptions.Builder.withUrl("/worker").payload(serializedParams);
+			getShardQueue(shard).add(options);
+		}
+	}
+
+	/**********
+	 * SHARDS *
+	 **********/
+
+	public int getNbOfShards() {
+		return nbOfShards;
+	}
+
+	/**
+	 * Get the shard of the given cart.
+	 * 
+	 * A cart spanning multiple companies goes to the shard of the first
+	 * company by name, so every cart has exactly one shard.
+	 */
+	public int getShard(ConfirmQuotesParams params) {
+		TreeSet<String> companies = new TreeSet<String>();
+		for (Quote quote : params.getQuotes()) {
+			companies.add(quote.getRentalCompany());
+		}
+		return companies.isEmpty() ? 0 : getShard(companies.first());
+	}
+
+	public int getShard(String company) {
+		return (company.hashCode() & 0x7fffffff) % nbOfShards;
+	}
+
+	private Queue getShardQueue(int shard) {
+		return QueueFactory.getQueue(SHARD_QUEUE_PREFIX + shard);
+	}
+
+	public ConfirmationQueue getBatchQueue(int shard) {
+		return batchQueues[shard];
+	}
+
+	/**
+	 * Make sure the batch queue of the given shard will be drained shortly.
+	 * 
+	 * At most one drain task is created per shard and per interval, carts
+	 * added during that interval are picked up by the same drain.
+	 */
+	public void scheduleDrain(int shard) {
+		long interval = System.currentTimeMillis() / DRAIN_INTERVAL;
+		TaskOptions options = TaskOptions.Builder.withUrl("/worker/batch")
+				.param("shard", Integer.toString(shard))
+				.taskName("drain-" + shard + "-" + interval).countdownMillis(DRAIN_INTERVAL);
+		try {
+			getShardQueue(shard).add(options);
+		} catch (TaskAlreadyExistsException e) {
+			logger.log(Level.FINE, "Drain of shard {0} already scheduled for interval {1}",
+					new Object[] { shard, interval });
+		}
+	}
+
+	/**
+	 * Estimate the time until a cart dispatched now would be confirmed, from
+	 * the backlog and the recent throughput of its shard.
+	 * 
+	 * The statistics of a shard are fetched at most once every few seconds,
+	 * so a burst of confirmations does not cost a queue RPC for each cart.
+	 * 
+	 * @param params
+	 *            the cart
+	 * @return The estimated wait in seconds, or -1 if it cannot be
+	 *         estimated.
+	 */
+	public long estimateWait(ConfirmQuotesParams params) {
+		int shard = getShard(params);
+		ConfirmationQueue.Statistics statistics;
+		try {
+			statistics = getStatistics(shard);
+		} catch (RuntimeException e) {
+			logger.log(Level.WARNING, "Could not fetch the statistics of shard " + shard, e);
+			return -1;
+		}
+		long backlog = statistics.getBacklog();
+		long processedLastMinute = statistics.getProcessedLastMinute();
+		if (backlog == 0)
+			return 0;
+		if (processedLastMinute == 0)
+			return -1;
+		return (backlog * 60 + processedLastMinute - 1) / processedLastMinute;
+	}
+
+	/**
+	 * Get the statistics of the given shard, fetching them only if the
+	 * cached statistics have expired.
+	 */
+	private ConfirmationQueue.Statistics getStatistics(int shard) {
+		long now = System.currentTimeMillis();
+		CachedStatistics cached = shardStatistics[shard];
+		if (cached != null && cached.expiresAt > now)
+			return cached.statistics;
+
+		ConfirmationQueue.Statistics statistics;
+		if (batching) {
+			statistics = batchQueues[shard].getStatistics();
+		} else {
+			QueueStatistics queueStatistics = getShardQueue(shard).fetchStatistics();
+			statistics = new ConfirmationQueue.Statistics(queueStatistics.getNumTasks(),
+					queueStatistics.getExecutedLastMinute());
+		}
+		// Concurrent requests may both fetch, the last one wins
+		shardStatistics[shard] = new CachedStatistics(statistics, now + STATISTICS_TTL);
+		return statistics;
+	}
+
+	private static class CachedStatistics {
+
+		private final ConfirmationQueue.Statistics statistics;
+		private final long expiresAt;
+
+		private CachedStatistics(ConfirmationQueue.Statistics statistics, long expiresAt) {
+			this.statistics = statistics;
+			this.expiresAt = expiresAt;
+		}
+
+	}
+
+}
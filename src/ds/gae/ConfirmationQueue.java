@@ -0,0 +1,96 @@
+package ds.gae;
+
+import java.util.List;
+
+/**
+ * Pull-style queue of pending cart confirmations.
+ * 
+ * Confirmations are leased in batches and only deleted once they have been
+ * processed. When a lease expires before its confirmation is deleted, the
+ * confirmation becomes available again for a later lease.
+ */
+public interface ConfirmationQueue {
+
+	/**
+	 * Add a pending confirmation to the queue.
+	 */
+	void add(ConfirmQuotesParams params);
+
+	/**
+	 * Lease up to the given number of pending confirmations.
+	 * 
+	 * @param max
+	 *            the maximum number of confirmations to lease
+	 * @param leaseMillis
+	 *            the duration of the lease in milliseconds
+	 * @return The leased confirmations, possibly empty.
+	 */
+	List<Lease> lease(int max, long leaseMillis);
+
+	/**
+	 * Delete a processed confirmation from the queue.
+	 */
+	void delete(Lease lease);
+
+	/**
+	 * Get the backlog and recent throughput of the queue, all at once.
+	 */
+	Statistics getStatistics();
+
+	/**
+	 * A confirmation leased from a {@link ConfirmationQueue}.
+	 */
+	public static class Lease {
+
+		private final ConfirmQuotesParams params;
+		private final Object handle;
+
+		public Lease(ConfirmQuotesParams params, Object handle) {
+			this.params = params;
+			this.handle = handle;
+		}
+
+		public ConfirmQuotesParams getParams() {
+			return params;
+		}
+
+		/**
+		 * The queue-specific handle of the leased confirmation.
+		 */
+		public Object getHandle() {
+			return handle;
+		}
+
+	}
+
+	/**
+	 * Statistics of a {@link ConfirmationQueue} at some point in time.
+	 */
+	public static class Statistics {
+
+		private final long backlog;
+		private final long processedLastMinute;
+
+		public Statistics(long backlog, long processedLastMinute) {
+			this.backlog = backlog;
+			this.processedLastMinute = processedLastMinute;
+		}
+
+		/**
+		 * The number of confirmations in the queue, leased or not.
+		 */
+		public long getBacklog() {
+			return backlog;
+		}
+
+		/**
+		 * The number of confirmations taken from the queue during the last
+		 * minute, as a measure of its throughput.
+		 */
+		public long getProcessedLastMinute() {
+			return processedLastMinute;
+		}
+
+	}
+
+}
@@ -0,0 +1,278 @@
+package ds.gae;
+
+import java.io.BufferedReader;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+import javax.persistence.EntityManager;
+
+import ds.gae.CarRentalModel.TransactionalTask;
+import ds.gae.entities.Car;
+import ds.gae.entities.CarRentalCompany;
+import ds.gae.entities.CarType;
+import ds.gae.entities.FleetImport;
+
+/**
+ * Imports the fleet of a car rental company from a CSV data file.
+ * 
+ * Every row of the file holds a car type and its number of cars:
+ * {@code name,seats,trunk space,price per day,smoking,number of cars}. Lines
+ * starting with {@code #} are comments.
+ * 
+ * The file is read one row at a time, and the cars of a row are written in
+ * batches of bounded size. Each batch is committed together with the
+ * {@link FleetImport} progress of the file, so an interrupted import resumes
+ * right after its last batch, without duplicating any car.
+ * 
+ * The cars are stored as child entities of their car type, without going
+ * through the company entity, so a batch costs the same however large the
+ * fleet already is. The company itself is only written when a row adds a
+ * new car type, and once when the import is done, to bump its version.
+ */
+public class FleetImporter {
+
+	private static final Logger logger = Logger.getLogger(FleetImporter.class.getName());
+
+	private static final int NB_OF_FIELDS = 6;
+
+	private final CarRentalModel model;
+
+	/**
+	 * Maximum number of cars to write in a single transaction.
+	 */
+	private final int batchSize = Integer.getInteger("ds.gae.import.batchSize", 200);
+
+	/***************
+	 * CONSTRUCTOR *
+	 ***************/
+
+	public FleetImporter(CarRentalModel model) {
+		this.model = model;
+	}
+
+	/**
+	 * Import the fleet of the given company from a data file on the class
+	 * path, or resume its import if it was interrupted.
+	 * 
+	 * @param companyName
+	 *            name of the car rental company, which is created if it does
+	 *            not exist yet
+	 * @param dataFile
+	 *            name of the data file
+	 * @return The progress of the import, which is done unless another
+	 *         import of the same file took over.
+	 * @throws IOException
+	 *             The data file cannot be read, or a batch could not be
+	 *             written. The import can be resumed later on.
+	 */
+	public FleetImport importFleet(String companyName, String dataFile) throws IOException {
+		FleetImport progress = getProgress(companyName, dataFile);
+		if (progress != null && progress.isDone())
+			return progress;
+
+		progress = start(companyName, dataFile);
+		if (progress.isDone())
+			return progress;
+
+		InputStream is = FleetImporter.class.getClassLoader().getResourceAsStream(dataFile);
+		if (is == null)
+			throw new FileNotFoundException(dataFile);
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(is, "UTF-8"))) {
+			String line;
+			long lineNumber = 0;
+			while ((line = in.readLine()) != null) {
+				lineNumber++;
+				// Skip the rows of earlier runs, comments and blank lines
+				if (lineNumber < progress.getNextLine() || line.startsWith("#")
+						|| line.trim().isEmpty()) {
+					continue;
+				}
+
+				String[] fields = parseRow(dataFile, line, lineNumber);
+				CarType type = parseCarType(companyName, dataFile, fields, lineNumber);
+				int nbOfCars = parseInt(dataFile, fields[5], lineNumber);
+
+				// Write the remaining cars of this row in batches
+				int nextCar = (lineNumber == progress.getNextLine()) ? progress.getNextCar() : 0;
+				do {
+					int count = Math.min(batchSize, nbOfCars - nextCar);
+					progress = commitBatch(progress, lineNumber, type, count,
+							nextCar + count == nbOfCars);
+					if (progress == null) {
+						logger.log(Level.INFO, "<{0}> Import of {1} taken over by another request",
+								new Object[] { companyName, dataFile });
+						return getProgress(companyName, dataFile);
+					}
+					nextCar += count;
+					logger.log(Level.INFO, "<{0}> Imported {1} cars from {2} (line {3})",
+							new Object[] { companyName, progress.getNbOfCars(), dataFile,
+									lineNumber });
+				} while (nextCar < nbOfCars);
+				CarTypeCache.get().put(type);
+			}
+		}
+
+		progress = finish(progress);
+		model.catalogChanged(companyName);
+		return (progress != null) ? progress : getProgress(companyName, dataFile);
+	}
+
+	/**
+	 * Get the progress of importing the given data file.
+	 * 
+	 * @return The progress, or null if the import has not started yet.
+	 */
+	public FleetImport getProgress(String companyName, String dataFile) {
+		EntityManager em = EMF.get().createEntityManager();
+		try {
+			return em.find(FleetImport.class, FleetImport.getKey(companyName, dataFile));
+		} finally {
+			em.close();
+		}
+	}
+
+	/***********
+	 * PARSING *
+	 ***********/
+
+	private static String[] parseRow(String dataFile, String line, long lineNumber)
+			throws IOException {
+		String[] fields = line.split(",", -1);
+		if (fields.length != NB_OF_FIELDS)
+			throw new IOException(dataFile + ":" + lineNumber + ": expected " + NB_OF_FIELDS
+					+ " fields but found " + fields.length);
+		for (int i = 0; i < fields.length; i++) {
+			fields[i] = fields[i].trim();
+		}
+		return fields;
+	}
+
+	private static CarType parseCarType(String companyName, String dataFile, String[] fields,
+			long lineNumber) throws IOException {
+		try {
+			return new CarType(companyName,
+					fields[0],
+					Integer.parseInt(fields[1]),
+					Float.parseFloat(fields[2]),
+					Double.parseDouble(fields[3]),
+					Boolean.parseBoolean(fields[4]));
+		} catch (NumberFormatException e) {
+			throw new IOException(dataFile + ":" + lineNumber + ": " + e.getMessage(), e);
+		}
+	}
+
+	private static int parseInt(String dataFile, String field, long lineNumber)
+			throws IOException {
+		try {
+			return Integer.parseInt(field);
+		} catch (NumberFormatException e) {
+			throw new IOException(dataFile + ":" + lineNumber + ": " + e.getMessage(), e);
+		}
+	}
+
+	/****************
+	 * TRANSACTIONS *
+	 ****************/
+
+	/**
+	 * Create the company (if needed) and the progress of the import.
+	 */
+	private FleetImport start(final String companyName, final String dataFile)
+			throws IOException {
+		return runInTransaction(companyName, new TransactionalTask<FleetImport>() {
+			@Override
+			public FleetImport run(EntityManager em) {
+				CarRentalCompany crc = em.find(CarRentalCompany.class, companyName);
+				FleetImport progress = em.find(FleetImport.class,
+						FleetImport.getKey(companyName, dataFile));
+				if (progress == null) {
+					progress = new FleetImport(companyName, dataFile);
+					if (crc != null && model.hasCars(em, crc)) {
+						// Fleet loaded before imports were tracked
+						progress.setDone();
+					}
+					em.persist(progress);
+				}
+				if (crc == null) {
+					em.persist(new CarRentalCompany(companyName, new HashSet<Car>()));
+				}
+				return progress;
+			}
+		});
+	}
+
+	/**
+	 * Add a batch of cars of the row on the given line, provided that the
+	 * progress was not changed by another import in the meantime.
+	 * 
+	 * @return The new progress, or null if another import took over.
+	 */
+	private FleetImport commitBatch(final FleetImport expected, final long lineNumber,
+			final CarType type, final int count, final boolean lastOfRow) throws IOException {
+		final String companyName = expected.getCompanyName();
+		return runInTransaction(companyName, new TransactionalTask<FleetImport>() {
+			@Override
+			public FleetImport run(EntityManager em) {
+				FleetImport progress = em.find(FleetImport.class, expected.getKey());
+				if (!isUnchanged(progress, expected))
+					return null;
+				if (progress.getNextLine() != lineNumber) {
+					progress.skipTo(lineNumber);
+				}
+				CarRentalCompany crc = em.find(CarRentalCompany.class, companyName);
+				CarType storedType = crc.addCarType(type);
+				for (int i = 0; i < count; i++) {
+					em.persist(new Car(storedType));
+				}
+				progress.addCars(count);
+				if (lastOfRow) {
+					progress.skipTo(lineNumber + 1);
+				}
+				return progress;
+			}
+		});
+	}
+
+	/**
+	 * Mark the import as done, and bump the version of the company for its
+	 * new cars.
+	 * 
+	 * @return The final progress, or null if another import took over.
+	 */
+	private FleetImport finish(final FleetImport expected) throws IOException {
+		return runInTransaction(expected.getCompanyName(), new TransactionalTask<FleetImport>() {
+			@Override
+			public FleetImport run(EntityManager em) {
+				FleetImport progress = em.find(FleetImport.class, expected.getKey());
+				if (!isUnchanged(progress, expected))
+					return null;
+				CarRentalCompany crc = em.find(CarRentalCompany.class, expected.getCompanyName());
+				crc.fleetChanged();
+				progress.setDone();
+				return progress;
+			}
+		});
+	}
+
+	private static boolean isUnchanged(FleetImport progress, FleetImport expected) {
+		return progress != null && !progress.isDone()
+				&& progress.getNextLine() == expected.getNextLine()
+				&& progress.getNextCar() == expected.getNextCar();
+	}
+
+	private <T> T runInTransaction(String companyName, TransactionalTask<T> task)
+			throws IOException {
+		try {
+			return model.runInTransaction(Collections.singleton(companyName), task);
+		} catch (ReservationException e) {
+			throw new IOException("Import into " + companyName + " failed: " + e.getMessage(), e);
+		}
+	}
+
+}
@@ -0,0 +1,77 @@
+package ds.gae;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+
+/**
+ * In-process stand-in for a pull queue of confirmations.
+ * 
+ * Pending confirmations only live in the memory of this instance, so this is
+ * only suitable for a single-instance or development deployment.
+ */
+public class LocalConfirmationQueue implements ConfirmationQueue {
+
+	private final LinkedList<ConfirmQuotesParams> pending = new LinkedList<ConfirmQuotesParams>();
+	private final List<LocalLease> leased = new ArrayList<LocalLease>();
+	/**
+	 * Times at which confirmations were deleted during the last minute.
+	 */
+	private final LinkedList<Long> deletedAt = new LinkedList<Long>();
+
+	@Override
+	public synchronized void add(ConfirmQuotesParams params) {
+		pending.add(params);
+	}
+
+	@Override
+	public synchronized List<Lease> lease(int max, long leaseMillis) {
+		long now = System.currentTimeMillis();
+		// Return expired leases to the queue
+		for (Iterator<LocalLease> it = leased.iterator(); it.hasNext();) {
+			LocalLease lease = it.next();
+			if (lease.expiresAt <= now) {
+				pending.addFirst(lease.params);
+				it.remove();
+			}
+		}
+
+		List<Lease> leases = new ArrayList<Lease>();
+		while (leases.size() < max && !pending.isEmpty()) {
+			LocalLease lease = new LocalLease(pending.removeFirst(), now + leaseMillis);
+			leased.add(lease);
+			leases.add(new Lease(lease.params, lease));
+		}
+		return leases;
+	}
+
+	@Override
+	public synchronized void delete(Lease lease) {
+		if (leased.remove(lease.getHandle())) {
+			deletedAt.addLast(System.currentTimeMillis());
+		}
+	}
+
+	@Override
+	public synchronized Statistics getStatistics() {
+		long minuteAgo = System.currentTimeMillis() - 60 * 1000L;
+		while (!deletedAt.isEmpty() && deletedAt.getFirst() <= minuteAgo) {
+			deletedAt.removeFirst();
+		}
+		return new Statistics(pending.size() + leased.size(), deletedAt.size());
+	}
+
+	private static class LocalLease {
+
+		private final ConfirmQuotesParams params;
+		private final long expiresAt;
+
+		private LocalLease(ConfirmQuotesParams params, long expiresAt) {
+			this.params = params;
+			this.expiresAt = expiresAt;
+		}
+
+	}
+
+}
@@ -0,0 +1,79 @@
+package ds.gae;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * In-process stand-in for a memcache service.
+ *
+ * Values are stored by reference with an optional expiration time, and
+ * expired values are dropped when they are looked up. Values should
+ * therefore be immutable, as they would be (de)serialized by a real memcache.
+ */
+public class LocalMemcache {
+
+	private static final LocalMemcache service = new LocalMemcache();
+
+	public static LocalMemcache getService() {
+		return service;
+	}
+
+	private final ConcurrentMap<Object, CachedValue> values = new ConcurrentHashMap<>();
+
+	/**
+	 * Get the value stored under the given key.
+	 *
+	 * @param key
+	 *            the key
+	 * @return The stored value, or null if absent or expired.
+	 */
+	public Object get(Object key) {
+		CachedValue cached = values.get(key);
+		if (cached == null)
+			return null;
+		if (cached.isExpired(System.currentTimeMillis())) {
+			values.remove(key, cached);
+			return null;
+		}
+		return cached.value;
+	}
+
+	/**
+	 * Store a value under the given key.
+	 *
+	 * @param key
+	 *            the key
+	 * @param value
+	 *            the value
+	 * @param ttl
+	 *            the time to live in milliseconds, or zero to never expire
+	 */
+	public void put(Object key, Object value, long ttl) {
+		values.put(key, new CachedValue(value, ttl));
+	}
+
+	public boolean delete(Object key) {
+		return values.remove(key) != null;
+	}
+
+	public void clearAll() {
+		values.clear();
+	}
+
+	private static class CachedValue {
+
+		private final Object value;
+		private final long expiresAt;
+
+		private CachedValue(Object value, long ttl) {
+			this.value = value;
+			this.expiresAt = (ttl > 0) ? System.currentTimeMillis() + ttl : Long.MAX_VALUE;
+		}
+
+		private boolean isExpired(long now) {
+			return now >= expiresAt;
+		}
+
+	}
+
+}
@@ -0,0 +1,207 @@
+package ds.gae;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import com.google.appengine.api.datastore.Key;
+
+import ds.gae.entities.Notification;
+
+/**
+ * Per-instance signals to wake up requests waiting for new notifications of
+ * a renter.
+ * 
+ * Every signal keeps the most recent notifications of its renter, so a
+ * waiting request can be answered without reading them back from the
+ * datastore. A signal is evicted once no request has waited on it for a
+ * while, so only renters who are polling keep one.
+ */
+public class NotificationSignals {
+
+	/**
+	 * Maximum number of recent notifications to keep per renter.
+	 */
+	private static final int MAX_RECENT = 20;
+
+	/**
+	 * Time (in milliseconds) a signal is kept after its last waiting request
+	 * left, so notifications raised between two polls are not missed.
+	 */
+	private static final long IDLE_TIMEOUT = 60 * 1000L;
+
+	private final ConcurrentMap<String, Signal> signals = new ConcurrentHashMap<>();
+
+	/**
+	 * Time (in milliseconds) of the last sweep for idle signals.
+	 */
+	private volatile long lastSweep = System.currentTimeMillis();
+
+	/**
+	 * Raise the signal of the renter of the given notification.
+	 */
+	public void raise(Notification notification) {
+		// Only renters who are polling have a signal to wake up
+		Signal signal = signals.get(notification.getRenterName());
+		if (signal != null) {
+			signal.raise(notification);
+		}
+		evictIdleSignals();
+	}
+
+	/**
+	 * Wait until the given renter has notifications at or after the given
+	 * time which the caller has not seen yet, or until the timeout elapses.
+	 * 
+	 * @param renterName
+	 *            name of the car renter
+	 * @param since
+	 *            the time (in milliseconds) of the newest notification the
+	 *            caller knows about
+	 * @param seen
+	 *            the keys of the notifications at that time which the caller
+	 *            knows about
+	 * @param timeout
+	 *            the maximum time (in milliseconds) to wait
+	 * @return The newer notifications raised on this instance, newest first.
+	 *         This list is empty if none arrived before the timeout.
+	 */
+	public List<Notification> await(String renterName, long since, Set<Key> seen, long timeout) {
+		evictIdleSignals();
+		Signal signal = enter(renterName);
+		try {
+			return signal.await(since, seen, timeout);
+		} finally {
+			signal.leave();
+		}
+	}
+
+	/**
+	 * Get the signal of the given renter and register a waiting request on
+	 * it, retrying when the signal is evicted in the meantime.
+	 */
+	private Signal enter(String renterName) {
+		while (true) {
+			Signal signal = signals.get(renterName);
+			if (signal == null) {
+				Signal newSignal = new Signal();
+				signal = signals.putIfAbsent(renterName, newSignal);
+				if (signal == null) {
+					signal = newSignal;
+				}
+			}
+			if (signal.enter())
+				return signal;
+		}
+	}
+
+	/**
+	 * Evict the signals on which nobody has waited for a while, at most once
+	 * every {@link #IDLE_TIMEOUT}.
+	 */
+	private void evictIdleSignals() {
+		long now = System.currentTimeMillis();
+		if (now - lastSweep < IDLE_TIMEOUT)
+			return;
+		lastSweep = now;
+		Iterator<Map.Entry<String, Signal>> it = signals.entrySet().iterator();
+		while (it.hasNext()) {
+			if (it.next().getValue().evictIfIdle(now)) {
+				it.remove();
+			}
+		}
+	}
+
+	private static class Signal {
+
+		/**
+		 * The most recent notifications, newest first.
+		 */
+		private final LinkedList<Notification> recent = new LinkedList<Notification>();
+
+		/**
+		 * Number of requests waiting on this signal.
+		 */
+		private int waiters;
+
+		/**
+		 * Time (in milliseconds) the last waiting request left.
+		 */
+		private long idleSince = System.currentTimeMillis();
+
+		/**
+		 * Whether this signal was removed from the map, after which it must
+		 * not be used anymore.
+		 */
+		private boolean evicted;
+
+		/**
+		 * @return False if this signal was evicted already.
+		 */
+		private synchronized boolean enter() {
+			if (evicted)
+				return false;
+			waiters++;
+			return true;
+		}
+
+		private synchronized void leave() {
+			waiters--;
+			idleSince = System.currentTimeMillis();
+		}
+
+		private synchronized boolean evictIfIdle(long now) {
+			if (waiters == 0 && now - idleSince >= IDLE_TIMEOUT) {
+				evicted = true;
+			}
+			return evicted;
+		}
+
+		private synchronized void raise(Notification notification) {
+			recent.addFirst(notification);
+			if (recent.size() > MAX_RECENT) {
+				recent.removeLast();
+			}
+			notifyAll();
+		}
+
+		private synchronized List<Notification> await(long since, Set<Key> seen, long timeout) {
+			long deadline = System.currentTimeMillis() + timeout;
+			List<Notification> newer = getNewer(since, seen);
+			long remaining = timeout;
+			while (newer.isEmpty() && remaining > 0) {
+				try {
+					wait(remaining);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					break;
+				}
+				newer = getNewer(since, seen);
+				remaining = deadline - System.currentTimeMillis();
+			}
+			return newer;
+		}
+
+		private List<Notification> getNewer(long since, Set<Key> seen) {
+			List<Notification> newer = new ArrayList<Notification>();
+			for (Notification notification : recent) {
+				long time = notification.getTimestamp().getTime();
+				if (time < since)
+					break;
+				// Without a key, a notification at the cursor cannot be told apart
+				Key key = notification.getKey();
+				if ((key == null) ? time > since : !seen.contains(key)) {
+					newer.add(notification);
+				}
+			}
+			return newer;
+		}
+
+	}
+
+}
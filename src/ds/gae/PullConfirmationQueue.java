@@ -0,0 +1,56 @@
+package ds.gae;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.google.appengine.api.taskqueue.Queue;
+import com.google.appengine.api.taskqueue.QueueFactory;
+import com.google.appengine.api.taskqueue.QueueStatistics;
+import com.google.appengine.api.taskqueue.TaskHandle;
+import com.google.appengine.api.taskqueue.TaskOptions;
+
+/**
+ * {@link ConfirmationQueue} backed by an App Engine pull queue.
+ */
+public class PullConfirmationQueue implements ConfirmationQueue {
+
+	private final Queue queue;
+
+	public PullConfirmationQueue(String queueName) {
+		this.queue = QueueFactory.getQueue(queueName);
+	}
+
+	@Override
+	public void add(ConfirmQuotesParams params) {
+		queue.add(TaskOptions.Builder.withMethod(TaskOptions.Method.PULL).payload(
+				SerializationUtils.serialize(params)));
+	}
+
+	@Override
+	public List<Lease> lease(int max, long leaseMillis) {
+		List<Lease> leases = new ArrayList<Lease>();
+		for (TaskHandle task : queue.leaseTasks(leaseMillis, TimeUnit.MILLISECONDS, max)) {
+			ConfirmQuotesParams params = SerializationUtils.deserialize(task.getPayload());
+			if (params != null) {
+				leases.add(new Lease(params, task));
+			} else {
+				// Drop payloads which cannot be decoded
+				queue.deleteTask(task);
+			}
+		}
+		return leases;
+	}
+
+	@Override
+	public void delete(Lease lease) {
+		queue.deleteTask((TaskHandle) lease.getHandle());
+	}
+
+	@Override
+	public Statistics getStatistics() {
+		QueueStatistics statistics = queue.fetchStatistics();
+		return new Statistics(statistics.getNumTasks(), statistics.getExecutedLastMinute());
+	}
+
+}
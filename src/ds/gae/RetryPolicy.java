@@ -0,0 +1,81 @@
+package ds.gae;
+
+import java.util.Random;
+
+/**
+ * Bounded retries with jittered exponential backoff.
+ *
+ * Before the n-th retry, a random delay between zero and
+ * {@code min(maxDelay, initialDelay * 2^(n-1))} is waited ("full jitter"),
+ * so competing clients spread out instead of colliding again.
+ */
+public class RetryPolicy {
+
+	private final int maxAttempts;
+	private final long initialDelay;
+	private final long maxDelay;
+
+	private final Random random = new Random();
+
+	/**
+	 * @param maxAttempts
+	 *            the maximum number of attempts, including the first one
+	 * @param initialDelay
+	 *            the maximum delay (in milliseconds) before the first retry
+	 * @param maxDelay
+	 *            the upper bound (in milliseconds) on any delay
+	 */
+	public RetryPolicy(int maxAttempts, long initialDelay, long maxDelay) {
+		if (maxAttempts < 1)
+			throw new IllegalArgumentException("At least one attempt is required");
+		this.maxAttempts = maxAttempts;
+		this.initialDelay = initialDelay;
+		this.maxDelay = maxDelay;
+	}
+
+	/**
+	 * Create a policy from the system properties with the given prefix,
+	 * falling back to the given defaults.
+	 *
+	 * The properties are {@code <prefix>.maxAttempts},
+	 * {@code <prefix>.initialDelay} and {@code <prefix>.maxDelay}.
+	 */
+	public static RetryPolicy fromSystemProperties(String prefix, int maxAttempts,
+			long initialDelay, long maxDelay) {
+		return new RetryPolicy(
+				Integer.getInteger(prefix + ".maxAttempts", maxAttempts),
+				Long.getLong(prefix + ".initialDelay", initialDelay),
+				Long.getLong(prefix + ".maxDelay", maxDelay));
+	}
+
+	public int getMaxAttempts() {
+		return maxAttempts;
+	}
+
+	public boolean canRetry(int attempt) {
+		return attempt < maxAttempts;
+	}
+
+	/**
+	 * Get a random delay (in milliseconds) to wait after the given failed
+	 * attempt.
+	 */
+	public long getDelay(int attempt) {
+		long bound = initialDelay << Math.min(attempt - 1, 30);
+		if (bound <= 0 || bound > maxDelay)
+			bound = maxDelay;
+		return (long) (random.nextDouble() * bound);
+	}
+
+	/**
+	 * Wait before retrying after the given failed attempt.
+	 */
+	public void backoff(int attempt) {
+		try {
+			Thread.sleep(getDelay(attempt));
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
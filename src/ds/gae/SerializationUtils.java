@@ -2,10 +2,12 @@ package ds.gae;
 
 import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.ObjectInputStream;
 import java.io.ObjectOutputStream;
+import java.io.PushbackInputStream;
 import java.io.Serializable;
 
 public class SerializationUtils {
@@ -24,6 +26,14 @@ public class SerializationUtils {
 		return null;
 	}
 
+	/**
+	 * Serialize a cart in the compact format of {@link ConfirmQuotesCodec},
+	 * instead of with Java serialization.
+	 */
+	public static byte[] serialize(ConfirmQuotesParams params) {
+		return ConfirmQuotesCodec.encode(params);
+	}
+
 	public static <T extends Serializable> T deserialize(byte[] bytes) {
 		try (ByteArrayInputStream bis = new ByteArrayInputStream(bytes);) {
 			return deserialize(bis);
@@ -33,10 +43,21 @@ public class SerializationUtils {
 		return null;
 	}
 
+	/**
+	 * Deserialize an object, written either with Java serialization or in the
+	 * compact format of {@link ConfirmQuotesCodec}.
+	 */
 	@SuppressWarnings("unchecked")
 	public static <T extends Serializable> T deserialize(InputStream is) {
-		try (ObjectInputStream in = new ObjectInputStream(is)) {
-			return (T) in.readObject();
+		try (PushbackInputStream in = new PushbackInputStream(is)) {
+			// Tell both formats apart by their first byte
+			int first = in.read();
+			if (first < 0)
+				throw new EOFException();
+			if (first == ConfirmQuotesCodec.MAGIC)
+				return (T) ConfirmQuotesCodec.decodeAfterMagic(in);
+			in.unread(first);
+			return (T) new ObjectInputStream(in).readObject();
 		} catch (ClassNotFoundException e) {
 			e.printStackTrace();
 		} catch (IOException e) {
@@ -18,21 +18,46 @@ public class Worker extends HttpServlet {
 			throws ServletException, IOException {
 		// Deserialize quotes
 		ConfirmQuotesParams params = SerializationUtils.deserialize(req.getInputStream());
-		ArrayList<Quote> quotes = params.getQuotes();
-		String renter = params.getRenter();
+		confirm(params);
+	}
 
+	/**
+	 * Confirm the quotes of a cart and notify the renter of the result.
+	 * 
+	 * A redelivered cart is not confirmed again, but gets the outcome stored
+	 * by its earlier delivery. Its renter is notified once more, in case the
+	 * earlier delivery failed before notifying.
+	 */
+	static void confirm(ConfirmQuotesParams params) {
+		ReservationException failure = null;
 		try {
 			// Try to confirm quotes
-			CarRentalModel.get().confirmQuotes(quotes);
-			// Success
-			String message = String.format("%d quote(s) successfully confirmed", quotes.size());
-			CarRentalModel.get().addNotification(params.getRenter(), message);
+			CarRentalModel.get().confirmQuotes(params.getToken(), params.getQuotes());
 		} catch (ReservationException e) {
 			// Failure
-			// e.printStackTrace();
-			String message = String.format("Could not confirm all %d quote(s). %s", quotes.size(),
-					e.getMessage());
-			CarRentalModel.get().addNotification(renter, message);
+			failure = e;
+		}
+		notifyResult(params, failure);
+	}
+
+	/**
+	 * Notify the renter of a cart of its confirmation result.
+	 * 
+	 * @param params
+	 *            the confirmed cart
+	 * @param failure
+	 *            the reason why the cart could not be confirmed, or null if
+	 *            it was confirmed successfully
+	 */
+	static void notifyResult(ConfirmQuotesParams params, ReservationException failure) {
+		ArrayList<Quote> quotes = params.getQuotes();
+		String message;
+		if (failure == null) {
+			message = String.format("%d quote(s) successfully confirmed", quotes.size());
+		} else {
+			message = String.format("Could not confirm all %d quote(s). %s", quotes.size(),
+					failure.getMessage());
 		}
+		CarRentalModel.get().addNotification(params.getRenter(), message);
 	}
 }
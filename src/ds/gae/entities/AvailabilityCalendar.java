@@ -0,0 +1,89 @@
+package ds.gae.entities;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Number of free cars per car type and per day of a single month.
+ */
+public class AvailabilityCalendar {
+
+	private final String companyName;
+	private final int year;
+	private final int month;
+	private final int firstDay;
+	private final int nbOfDays;
+	private final List<String> carTypeNames;
+	/**
+	 * Free counts with one row of {@link #nbOfDays} counts per car type.
+	 */
+	private final int[] freeCounts;
+
+	AvailabilityCalendar(String companyName, int year, int month, List<String> carTypeNames) {
+		Calendar calendar = Calendar.getInstance();
+		calendar.clear();
+		calendar.set(year, month - 1, 1);
+		this.companyName = companyName;
+		this.year = year;
+		this.month = month;
+		this.firstDay = EpochDays.fromDate(calendar.getTime());
+		this.nbOfDays = calendar.getActualMaximum(Calendar.DAY_OF_MONTH);
+		this.carTypeNames = Collections.unmodifiableList(new ArrayList<String>(carTypeNames));
+		this.freeCounts = new int[carTypeNames.size() * nbOfDays];
+	}
+
+	public String getCompanyName() {
+		return companyName;
+	}
+
+	public int getYear() {
+		return year;
+	}
+
+	/**
+	 * The month of the year, starting from 1 for January.
+	 */
+	public int getMonth() {
+		return month;
+	}
+
+	public int getNbOfDays() {
+		return nbOfDays;
+	}
+
+	public List<String> getCarTypeNames() {
+		return carTypeNames;
+	}
+
+	/**
+	 * Get the date of the given day of the month, starting from 1.
+	 */
+	public Date getDate(int dayOfMonth) {
+		return EpochDays.toDate(firstDay + dayOfMonth - 1);
+	}
+
+	/**
+	 * Get the number of free cars of the car type at the given index on the
+	 * given day of the month, starting from 1.
+	 */
+	public int getFreeCount(int carTypeIndex, int dayOfMonth) {
+		return freeCounts[carTypeIndex * nbOfDays + dayOfMonth - 1];
+	}
+
+	public int getFreeCount(String carTypeName, int dayOfMonth) {
+		int carTypeIndex = carTypeNames.indexOf(carTypeName);
+		return (carTypeIndex < 0) ? 0 : getFreeCount(carTypeIndex, dayOfMonth);
+	}
+
+	int getFirstDay() {
+		return firstDay;
+	}
+
+	void setFreeCounts(int carTypeIndex, int[] counts) {
+		System.arraycopy(counts, 0, freeCounts, carTypeIndex * nbOfDays, nbOfDays);
+	}
+
+}
@@ -0,0 +1,371 @@
+package ds.gae.entities;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Company-wide index of the occupied cars per (car type, day).
+ *
+ * Every car of a type is assigned a fixed bit position. For each day, a bit
+ * set records which cars of that type are reserved. The number of free cars
+ * on a day is the number of cars minus the cardinality of that bit set.
+ *
+ * A car type is available for a whole period if at least one car is free on
+ * every day of that period. A positive minimum of the daily free counts is
+ * not sufficient for this (a different car could be free on each day), so
+ * the daily bit sets over the period are combined instead. This yields the
+ * exact answer without looking at the reservations of the individual cars.
+ */
+class AvailabilityIndex {
+
+	private final Map<String, TypeIndex> types = new HashMap<String, TypeIndex>();
+
+	/***************
+	 * CONSTRUCTOR *
+	 ***************/
+
+	public AvailabilityIndex(Map<String, List<Car>> carsByType) {
+		for (Map.Entry<String, List<Car>> entry : carsByType.entrySet()) {
+			TypeIndex type = new TypeIndex();
+			for (Car car : entry.getValue()) {
+				type.addCar(car);
+			}
+			for (Car car : entry.getValue()) {
+				for (Reservation res : car.getReservations()) {
+					type.mark(car, res, true);
+				}
+			}
+			types.put(entry.getKey(), type);
+		}
+	}
+
+	private AvailabilityIndex() {
+	}
+
+	private AvailabilityIndex(AvailabilityIndex other) {
+		for (Map.Entry<String, TypeIndex> entry : other.types.entrySet()) {
+			types.put(entry.getKey(), new TypeIndex(entry.getValue()));
+		}
+	}
+
+	/**
+	 * Create a copy of this index which no longer refers to the indexed
+	 * {@link Car}s. The copy can still be queried, but is not affected by
+	 * later reservations on those cars.
+	 */
+	public AvailabilityIndex detachedCopy() {
+		return new AvailabilityIndex(this);
+	}
+
+	/*****************
+	 * SERIALIZATION *
+	 *****************/
+
+	/**
+	 * Write the daily bit sets of this index, without the indexed cars.
+	 */
+	void writeTo(DataOutput out) throws IOException {
+		out.writeInt(types.size());
+		for (Map.Entry<String, TypeIndex> entry : types.entrySet()) {
+			TypeIndex type = entry.getValue();
+			out.writeUTF(entry.getKey());
+			out.writeInt(type.nbOfCars);
+			out.writeInt(type.busyByDay.size());
+			for (Map.Entry<Integer, BitSet> day : type.busyByDay.entrySet()) {
+				long[] words = day.getValue().toLongArray();
+				out.writeInt(day.getKey());
+				out.writeInt(words.length);
+				for (long word : words) {
+					out.writeLong(word);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Read an index written by {@link #writeTo(DataOutput)}. Like a
+	 * {@link #detachedCopy()}, it does not refer to any {@link Car}s.
+	 */
+	static AvailabilityIndex readFrom(DataInput in) throws IOException {
+		AvailabilityIndex index = new AvailabilityIndex();
+		int nbOfTypes = in.readInt();
+		for (int i = 0; i < nbOfTypes; i++) {
+			TypeIndex type = new TypeIndex();
+			String name = in.readUTF();
+			type.nbOfCars = in.readInt();
+			int nbOfDays = in.readInt();
+			for (int j = 0; j < nbOfDays; j++) {
+				int day = in.readInt();
+				long[] words = new long[in.readInt()];
+				for (int k = 0; k < words.length; k++) {
+					words[k] = in.readLong();
+				}
+				type.busyByDay.put(day, BitSet.valueOf(words));
+			}
+			index.types.put(name, type);
+		}
+		return index;
+	}
+
+	/***********
+	 * QUERIES *
+	 ***********/
+
+	public Set<String> getCarTypeNames() {
+		return types.keySet();
+	}
+
+	public int getNbOfCars(String carTypeName) {
+		TypeIndex type = types.get(carTypeName);
+		return (type == null) ? 0 : type.nbOfCars;
+	}
+
+	/**
+	 * Check whether at least one car of the given type is free on every day
+	 * from the given start day up to and including the given end day.
+	 */
+	public boolean isAvailable(String carTypeName, int startDay, int endDay) {
+		TypeIndex type = types.get(carTypeName);
+		return type != null && type.getFreeCar(startDay, endDay) >= 0;
+	}
+
+	/**
+	 * Get the number of cars of the given type which are free on every day
+	 * from the given start day up to and including the given end day.
+	 */
+	public int getNbOfFreeCars(String carTypeName, int startDay, int endDay) {
+		TypeIndex type = types.get(carTypeName);
+		if (type == null)
+			return 0;
+		return type.nbOfCars - type.getBusyCars(startDay, endDay).cardinality();
+	}
+
+	/**
+	 * Get the cars of the given type which are free on every day from the
+	 * given start day up to and including the given end day.
+	 */
+	public List<Car> getFreeCars(String carTypeName, int startDay, int endDay) {
+		TypeIndex type = types.get(carTypeName);
+		if (type == null)
+			return Collections.emptyList();
+		return type.getFreeCars(startDay, endDay);
+	}
+
+	/**
+	 * Check the availability of all car types over all given periods.
+	 * 
+	 * For every car type, the daily bit sets are visited only once for all
+	 * periods together.
+	 */
+	public AvailabilityMatrix getAvailability(List<Period> periods) {
+		int nbOfPeriods = periods.size();
+		int[] startDays = new int[nbOfPeriods];
+		int[] endDays = new int[nbOfPeriods];
+		for (int i = 0; i < nbOfPeriods; i++) {
+			startDays[i] = periods.get(i).getStartDay();
+			endDays[i] = periods.get(i).getEndDay();
+		}
+
+		List<String> carTypeNames = new ArrayList<String>(types.keySet());
+		Collections.sort(carTypeNames);
+		AvailabilityMatrix matrix = new AvailabilityMatrix(carTypeNames, periods);
+		for (int i = 0; i < carTypeNames.size(); i++) {
+			matrix.setRow(i, types.get(carTypeNames.get(i)).getAvailability(startDays, endDays));
+		}
+		return matrix;
+	}
+
+	/**
+	 * Get the number of free cars per car type and per day of the given
+	 * month.
+	 * 
+	 * @param month
+	 *            the month of the year, starting from 1 for January
+	 */
+	public AvailabilityCalendar getCalendar(String companyName, int year, int month) {
+		List<String> carTypeNames = new ArrayList<String>(types.keySet());
+		Collections.sort(carTypeNames);
+		AvailabilityCalendar calendar = new AvailabilityCalendar(companyName, year, month,
+				carTypeNames);
+		for (int i = 0; i < carTypeNames.size(); i++) {
+			calendar.setFreeCounts(i, types.get(carTypeNames.get(i)).getFreeCounts(
+					calendar.getFirstDay(), calendar.getNbOfDays()));
+		}
+		return calendar;
+	}
+
+	/**
+	 * Get the number of free cars of the given type on the given day.
+	 */
+	public int getFreeCount(String carTypeName, int day) {
+		TypeIndex type = types.get(carTypeName);
+		if (type == null)
+			return 0;
+		BitSet busy = type.busyByDay.get(day);
+		return type.nbOfCars - ((busy == null) ? 0 : busy.cardinality());
+	}
+
+	/*************
+	 * MUTATIONS *
+	 *************/
+
+	public void reserve(Car car, Reservation res) {
+		TypeIndex type = types.get(car.getTypeName());
+		if (type != null) {
+			type.mark(car, res, true);
+		}
+	}
+
+	public void release(Car car, Reservation res) {
+		TypeIndex type = types.get(car.getTypeName());
+		if (type != null) {
+			type.mark(car, res, false);
+		}
+	}
+
+	/**
+	 * Index for the cars of a single car type.
+	 */
+	private static class TypeIndex {
+
+		private final List<Car> cars = new ArrayList<Car>();
+		private final Map<Car, Integer> positions = new IdentityHashMap<Car, Integer>();
+		private final NavigableMap<Integer, BitSet> busyByDay = new TreeMap<Integer, BitSet>();
+		private int nbOfCars;
+
+		private TypeIndex() {
+		}
+
+		private TypeIndex(TypeIndex other) {
+			for (Map.Entry<Integer, BitSet> entry : other.busyByDay.entrySet()) {
+				busyByDay.put(entry.getKey(), (BitSet) entry.getValue().clone());
+			}
+			nbOfCars = other.nbOfCars;
+		}
+
+		private void addCar(Car car) {
+			positions.put(car, nbOfCars++);
+			cars.add(car);
+		}
+
+		/**
+		 * Get the position of a car which is free over the whole period, or
+		 * -1 if there is none.
+		 */
+		private int getFreeCar(int startDay, int endDay) {
+			BitSet busy = getBusyCars(startDay, endDay);
+			int free = busy.nextClearBit(0);
+			return (free < nbOfCars) ? free : -1;
+		}
+
+		private List<Car> getFreeCars(int startDay, int endDay) {
+			BitSet busy = getBusyCars(startDay, endDay);
+			List<Car> freeCars = new ArrayList<Car>();
+			for (int i = busy.nextClearBit(0); i < cars.size(); i = busy.nextClearBit(i + 1)) {
+				freeCars.add(cars.get(i));
+			}
+			return freeCars;
+		}
+
+		/**
+		 * Get the positions of the cars which are reserved on at least one
+		 * day of the given period.
+		 */
+		private BitSet getBusyCars(int startDay, int endDay) {
+			BitSet busy = new BitSet(nbOfCars);
+			for (BitSet busyOnDay : busyByDay.subMap(startDay, true, endDay, true).values()) {
+				busy.or(busyOnDay);
+				if (busy.cardinality() >= nbOfCars)
+					break;
+			}
+			return busy;
+		}
+
+		/**
+		 * Get the number of free cars on each of the given consecutive days.
+		 */
+		private int[] getFreeCounts(int firstDay, int nbOfDays) {
+			int[] freeCounts = new int[nbOfDays];
+			Arrays.fill(freeCounts, nbOfCars);
+			for (Map.Entry<Integer, BitSet> entry : busyByDay.subMap(firstDay, true,
+					firstDay + nbOfDays - 1, true).entrySet()) {
+				freeCounts[entry.getKey() - firstDay] -= entry.getValue().cardinality();
+			}
+			return freeCounts;
+		}
+
+		/**
+		 * Get the periods in which at least one car is free over the whole
+		 * period, in a single pass over the days spanned by all periods.
+		 */
+		private BitSet getAvailability(int[] startDays, int[] endDays) {
+			int nbOfPeriods = startDays.length;
+			BitSet available = new BitSet(nbOfPeriods);
+			if (nbOfPeriods == 0 || nbOfCars == 0)
+				return available;
+
+			int minDay = Integer.MAX_VALUE, maxDay = Integer.MIN_VALUE;
+			for (int i = 0; i < nbOfPeriods; i++) {
+				minDay = Math.min(minDay, startDays[i]);
+				maxDay = Math.max(maxDay, endDays[i]);
+			}
+
+			BitSet[] busy = new BitSet[nbOfPeriods];
+			for (Map.Entry<Integer, BitSet> entry : busyByDay.subMap(minDay, true, maxDay, true)
+					.entrySet()) {
+				int day = entry.getKey();
+				for (int i = 0; i < nbOfPeriods; i++) {
+					if (startDays[i] <= day && day <= endDays[i]) {
+						if (busy[i] == null) {
+							busy[i] = new BitSet(nbOfCars);
+						}
+						busy[i].or(entry.getValue());
+					}
+				}
+			}
+
+			for (int i = 0; i < nbOfPeriods; i++) {
+				if (busy[i] == null || busy[i].nextClearBit(0) < nbOfCars) {
+					available.set(i);
+				}
+			}
+			return available;
+		}
+
+		private void mark(Car car, Reservation res, boolean reserved) {
+			Integer position = positions.get(car);
+			if (position == null)
+				return;
+			int endDay = res.getEndDay();
+			for (int day = res.getStartDay(); day <= endDay; day++) {
+				BitSet busy = busyByDay.get(day);
+				if (reserved) {
+					if (busy == null) {
+						busy = new BitSet(nbOfCars);
+						busyByDay.put(day, busy);
+					}
+					busy.set(position);
+				} else if (busy != null) {
+					busy.clear(position);
+					if (busy.isEmpty()) {
+						busyByDay.remove(day);
+					}
+				}
+			}
+		}
+
+	}
+
+}
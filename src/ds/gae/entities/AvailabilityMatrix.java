@@ -0,0 +1,72 @@
+package ds.gae.entities;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Availability of a number of car types over a number of periods.
+ *
+ * The matrix is stored as a single bit set, with one row of period bits per
+ * car type.
+ */
+public class AvailabilityMatrix {
+
+	private final List<String> carTypeNames;
+	private final List<Period> periods;
+	private final BitSet available;
+
+	AvailabilityMatrix(List<String> carTypeNames, List<Period> periods) {
+		this.carTypeNames = Collections.unmodifiableList(new ArrayList<String>(carTypeNames));
+		this.periods = Collections.unmodifiableList(new ArrayList<Period>(periods));
+		this.available = new BitSet(carTypeNames.size() * periods.size());
+	}
+
+	public List<String> getCarTypeNames() {
+		return carTypeNames;
+	}
+
+	public List<Period> getPeriods() {
+		return periods;
+	}
+
+	/**
+	 * Check whether the car type at the given index is available over the
+	 * period at the given index.
+	 */
+	public boolean isAvailable(int carTypeIndex, int periodIndex) {
+		return available.get(carTypeIndex * periods.size() + periodIndex);
+	}
+
+	public boolean isAvailable(String carTypeName, int periodIndex) {
+		int carTypeIndex = carTypeNames.indexOf(carTypeName);
+		return carTypeIndex >= 0 && isAvailable(carTypeIndex, periodIndex);
+	}
+
+	/**
+	 * Get the names of the car types which are available over the period at
+	 * the given index.
+	 */
+	public List<String> getAvailableCarTypes(int periodIndex) {
+		List<String> availableCarTypes = new ArrayList<String>();
+		for (int i = 0; i < carTypeNames.size(); i++) {
+			if (isAvailable(i, periodIndex)) {
+				availableCarTypes.add(carTypeNames.get(i));
+			}
+		}
+		return availableCarTypes;
+	}
+
+	/**
+	 * Set the availability of a car type over all periods at once.
+	 */
+	void setRow(int carTypeIndex, BitSet availableInPeriods) {
+		int offset = carTypeIndex * periods.size();
+		BitSet row = availableInPeriods.get(0, periods.size());
+		for (int i = row.nextSetBit(0); i >= 0; i = row.nextSetBit(i + 1)) {
+			available.set(offset + i);
+		}
+	}
+
+}
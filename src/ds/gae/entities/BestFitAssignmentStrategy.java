@@ -0,0 +1,33 @@
+package ds.gae.entities;
+
+import java.util.List;
+
+/**
+ * Picks the free car whose free gap around the period fits tightest.
+ * 
+ * Filling up the smallest gaps first keeps the larger gaps (and completely
+ * free cars) intact for later and longer reservations, instead of
+ * fragmenting the calendars of all cars.
+ */
+public class BestFitAssignmentStrategy implements CarAssignmentStrategy {
+
+	/**
+	 * Free days counted for a side of the period without any reservation.
+	 */
+	private static final long UNBOUNDED = Integer.MAX_VALUE;
+
+	@Override
+	public Car selectCar(List<Car> freeCars, int startDay, int endDay) {
+		Car bestCar = null;
+		long bestFreeDays = Long.MAX_VALUE;
+		for (Car car : freeCars) {
+			long freeDays = car.getFreeDaysAround(startDay, endDay, UNBOUNDED);
+			if (freeDays < bestFreeDays) {
+				bestCar = car;
+				bestFreeDays = freeDays;
+			}
+		}
+		return bestCar;
+	}
+
+}
@@ -7,7 +7,6 @@ import java.util.Set;
 
 import javax.persistence.CascadeType;
 import javax.persistence.Entity;
-import javax.persistence.EntityManager;
 import javax.persistence.GeneratedValue;
 import javax.persistence.GenerationType;
 import javax.persistence.Id;
@@ -21,7 +20,7 @@ import org.datanucleus.api.jpa.annotations.Extension;
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
 
-import ds.gae.EMF;
+import ds.gae.CarTypeCache;
 
 @Entity(name = Car.KIND)
 @NamedQueries({
@@ -50,12 +49,24 @@ public class Car {
 	@Extension(vendorName = "datanucleus", key = "gae.parent-pk", value = "true")
 	private Key carTypeKey;
 
+	@Transient
+	private Key key;
+
 	@Transient
 	private CarType carType;
 
 	@OneToMany(cascade = CascadeType.ALL)
 	private Set<Reservation> reservations = new HashSet<Reservation>();
 
+	/**
+	 * Ordered index over the periods of {@link #reservations}.
+	 * 
+	 * This is not persisted, but rebuilt on first use after the car has been
+	 * loaded from the datastore.
+	 */
+	@Transient
+	private ReservationIndex reservationIndex;
+
 	/***************
 	 * CONSTRUCTOR *
 	 ***************/
@@ -78,7 +89,11 @@ public class Car {
 	 ******/
 
 	public Key getKey() {
-		return KeyFactory.stringToKey(encodedKey);
+		if (key == null && encodedKey != null) {
+			// Decode only once
+			key = KeyFactory.stringToKey(encodedKey);
+		}
+		return key;
 	}
 
 	public long getId() {
@@ -99,10 +114,8 @@ public class Car {
 
 	public CarType getType() {
 		if (carType == null && carTypeKey != null) {
-			// Manual lazy-loading
-			EntityManager emf = EMF.get().createEntityManager();
-			carType = emf.find(CarType.class, carTypeKey);
-			emf.close();
+			// Manual lazy-loading, shared by all cars of this type
+			carType = CarTypeCache.get().getCarType(carTypeKey);
 		}
 		return carType;
 	}
@@ -119,21 +132,48 @@ public class Car {
 		if (!start.before(end))
 			throw new IllegalArgumentException("Illegal given period");
 
-		for (Reservation reservation : reservations) {
-			if (reservation.getEndDate().before(start) || reservation.getStartDate().after(end))
-				continue;
-			return false;
-		}
-		return true;
+		return isAvailable(EpochDays.fromDate(start), EpochDays.fromDate(end));
+	}
+
+	public boolean isAvailable(int startDay, int endDay) {
+		return !getReservationIndex().overlaps(startDay, endDay);
+	}
+
+	/**
+	 * Get the number of free days around the given period, before the
+	 * previous and after the next reservation of this car. A side without
+	 * any reservation counts as {@code unbounded} days.
+	 */
+	long getFreeDaysAround(int startDay, int endDay, long unbounded) {
+		ReservationIndex index = getReservationIndex();
+		int endBefore = index.getEndBefore(startDay);
+		int startAfter = index.getStartAfter(endDay);
+		long before = (endBefore == Integer.MIN_VALUE) ? unbounded : (long) startDay - endBefore - 1;
+		long after = (startAfter == Integer.MAX_VALUE) ? unbounded : (long) startAfter - endDay - 1;
+		return before + after;
 	}
 
 	public void addReservation(Reservation res) {
-		reservations.add(res);
+		ReservationIndex index = getReservationIndex();
+		if (reservations.add(res)) {
+			index.add(res.getStartDay(), res.getEndDay());
+		}
 	}
 
 	public void removeReservation(Reservation reservation) {
 		// equals-method for Reservation is required!
-		reservations.remove(reservation);
+		ReservationIndex index = getReservationIndex();
+		if (reservations.remove(reservation)) {
+			index.remove(reservation.getStartDay(), reservation.getEndDay());
+		}
+	}
+
+	private ReservationIndex getReservationIndex() {
+		if (reservationIndex == null) {
+			// Build from the (possibly freshly loaded) reservations
+			reservationIndex = new ReservationIndex(reservations);
+		}
+		return reservationIndex;
 	}
 
 	@Override
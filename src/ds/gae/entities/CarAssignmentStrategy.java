@@ -0,0 +1,24 @@
+package ds.gae.entities;
+
+import java.util.List;
+
+/**
+ * Strategy to pick the car for a new reservation among the cars which are
+ * free over the whole reservation period.
+ */
+public interface CarAssignmentStrategy {
+
+	/**
+	 * Select the car to assign to the given period.
+	 * 
+	 * @param freeCars
+	 *            the cars which are free over the whole period, not empty
+	 * @param startDay
+	 *            the first day of the period
+	 * @param endDay
+	 *            the last day of the period
+	 * @return One of the given cars.
+	 */
+	Car selectCar(List<Car> freeCars, int startDay, int endDay);
+
+}
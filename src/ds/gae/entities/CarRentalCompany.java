@@ -1,11 +1,11 @@
 package ds.gae.entities;
 
+import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
@@ -18,10 +18,10 @@ import javax.persistence.Id;
 import javax.persistence.NamedQueries;
 import javax.persistence.NamedQuery;
 import javax.persistence.OneToMany;
+import javax.persistence.Transient;
 
 import com.google.appengine.api.datastore.Key;
 import com.google.appengine.api.datastore.KeyFactory;
-import com.google.appengine.datanucleus.annotations.Unowned;
 
 import ds.gae.ReservationException;
 
@@ -45,6 +45,16 @@ public class CarRentalCompany {
 	@Id
 	private String name;
 
+	/**
+	 * Version stamp of the reservations in this company.
+	 * 
+	 * This is bumped on every confirmed or cancelled reservation, so cached
+	 * {@link CompanySnapshot}s can cheaply detect whether they are outdated.
+	 * Companies stored before versions were tracked have no version yet,
+	 * which counts as 0.
+	 */
+	private Long version;
+
 	/**
 	 * All car types in this company.
 	 */
@@ -54,13 +64,42 @@ public class CarRentalCompany {
 	/**
 	 * All cars in this company.
 	 * 
-	 * This relation is unowned, as the {@link CarType} already owns the
-	 * {@link Car}s. Since we already own {@link CarType}s, we indirectly also
-	 * own the {@link Car}s anyway.
+	 * The cars are child entities of their {@link CarType}, and are not
+	 * referenced from the company entity: with a large fleet, that reference
+	 * would make the company exceed the maximum entity size, and every write
+	 * to the company would rewrite it. They are loaded by an ancestor query
+	 * per car type instead, see {@link #setCars(Collection)}. Null until they
+	 * are loaded.
 	 */
-	@OneToMany(cascade = CascadeType.ALL)
-	@Unowned
-	private Set<Car> cars = new HashSet<Car>();
+	@Transient
+	private Set<Car> cars;
+
+	/**
+	 * Index of the occupied cars per car type and day.
+	 * 
+	 * This is not persisted, but rebuilt on first use after the company has
+	 * been loaded from the datastore.
+	 */
+	@Transient
+	private AvailabilityIndex availabilityIndex;
+
+	/**
+	 * Index of the cars by car type name.
+	 */
+	@Transient
+	private Map<String, List<Car>> carsByType;
+
+	/**
+	 * Index of the cars by car ID.
+	 */
+	@Transient
+	private Map<Long, Car> carsById;
+
+	/**
+	 * Strategy to assign cars to confirmed quotes.
+	 */
+	@Transient
+	private CarAssignmentStrategy assignmentStrategy;
 
 	/***************
 	 * CONSTRUCTOR *
@@ -69,6 +108,7 @@ public class CarRentalCompany {
 	public CarRentalCompany(String name, Set<Car> cars) {
 		logger.log(Level.INFO, "<{0}> Car Rental Company {0} starting up...", name);
 		setName(name);
+		this.cars = new HashSet<Car>();
 		for (Car car : cars) {
 			addCar(car);
 		}
@@ -94,6 +134,27 @@ public class CarRentalCompany {
 		return KeyFactory.createKey(KIND, companyName);
 	}
 
+	/***********
+	 * VERSION *
+	 ***********/
+
+	public long getVersion() {
+		return (version == null) ? 0 : version;
+	}
+
+	private void bumpVersion() {
+		version = getVersion() + 1;
+	}
+
+	/**
+	 * Create a read-only snapshot of the car types and availability of this
+	 * company, which remains usable after this company is detached.
+	 */
+	public CompanySnapshot createSnapshot() {
+		return new CompanySnapshot(name, getVersion(), carTypes,
+				getAvailabilityIndex().detachedCopy());
+	}
+
 	/*************
 	 * CAR TYPES *
 	 *************/
@@ -112,26 +173,80 @@ public class CarRentalCompany {
 	public boolean isAvailable(String carTypeName, Date start, Date end) {
 		logger.log(Level.INFO, "<{0}> Checking availability for car type {1}", new Object[] { name,
 				carTypeName });
-		if (carTypes.containsKey(carTypeName))
-			return getAvailableCarTypes(start, end).contains(carTypes.get(carTypeName));
+		if (carTypes.containsKey(carTypeName)) {
+			checkPeriod(start, end);
+			return isAvailable(carTypeName, EpochDays.fromDate(start), EpochDays.fromDate(end));
+		}
 		throw new IllegalArgumentException("<" + carTypeName + "> No car type of name "
 				+ carTypeName);
 	}
 
+	private boolean isAvailable(String carTypeName, int startDay, int endDay) {
+		return getAvailabilityIndex().isAvailable(carTypeName, startDay, endDay);
+	}
+
 	public Set<CarType> getAvailableCarTypes(Date start, Date end) {
+		checkPeriod(start, end);
+		return getAvailableCarTypes(EpochDays.fromDate(start), EpochDays.fromDate(end));
+	}
+
+	private Set<CarType> getAvailableCarTypes(int startDay, int endDay) {
+		AvailabilityIndex index = getAvailabilityIndex();
 		Set<CarType> availableCarTypes = new HashSet<CarType>();
-		for (Car car : cars) {
-			if (car.isAvailable(start, end)) {
-				availableCarTypes.add(carTypes.get(car.getTypeName()));
+		for (String carTypeName : index.getCarTypeNames()) {
+			if (index.isAvailable(carTypeName, startDay, endDay)) {
+				availableCarTypes.add(carTypes.get(carTypeName));
 			}
 		}
 		return availableCarTypes;
 	}
 
-	protected void addCarType(CarType carType) {
+	/**
+	 * Check the availability of all car types over all given periods at once.
+	 * 
+	 * @param periods
+	 *            the periods to check
+	 * @return A matrix with the availability per car type and period.
+	 */
+	public AvailabilityMatrix getAvailability(List<Period> periods) {
+		return getAvailabilityIndex().getAvailability(periods);
+	}
+
+	/**
+	 * Get the number of free cars per car type and per day of the given
+	 * month.
+	 * 
+	 * @param year
+	 *            the year
+	 * @param month
+	 *            the month of the year, starting from 1 for January
+	 * @return The availability calendar of the month.
+	 */
+	public AvailabilityCalendar getCalendar(int year, int month) {
+		return getAvailabilityIndex().getCalendar(name, year, month);
+	}
+
+	static void checkPeriod(Date start, Date end) {
+		if (!start.before(end))
+			throw new IllegalArgumentException("Illegal given period");
+	}
+
+	static void checkPeriod(int startDay, int endDay) {
+		if (startDay >= endDay)
+			throw new IllegalArgumentException("Illegal given period");
+	}
+
+	/**
+	 * Add the given car type to this company, unless it has a car type of
+	 * that name already.
+	 * 
+	 * @return The car type of that name in this company.
+	 */
+	public CarType addCarType(CarType carType) {
 		if (!carTypes.containsKey(carType.getName())) {
 			carTypes.put(carType.getName(), carType);
 		}
+		return carTypes.get(carType.getName());
 	}
 
 	protected void removeCarType(CarType carType) {
@@ -143,34 +258,119 @@ public class CarRentalCompany {
 	 *********/
 
 	public Set<Car> getCars() {
-		return cars;
+		if (cars == null)
+			throw new IllegalStateException("<" + name + "> Cars have not been loaded");
+		return Collections.unmodifiableSet(cars);
+	}
+
+	/**
+	 * Check whether the cars of this company have been set, see
+	 * {@link #setCars(Collection)}.
+	 */
+	public boolean hasLoadedCars() {
+		return cars != null;
+	}
+
+	/**
+	 * Set the cars of this company, after it was loaded from the datastore.
+	 */
+	public void setCars(Collection<Car> cars) {
+		this.cars = new HashSet<Car>(cars);
+		invalidateIndexes();
 	}
 
 	private Car getCar(long uid) {
-		for (Car car : cars) {
-			if (car.getId() == uid)
-				return car;
-		}
+		Car car = getCarsById().get(uid);
+		if (car != null)
+			return car;
 		throw new IllegalArgumentException("<" + name + "> No car with uid " + uid);
 	}
 
-	private List<Car> getAvailableCars(String carType, Date start, Date end) {
-		List<Car> availableCars = new LinkedList<Car>();
-		for (Car car : cars) {
-			if (car.getTypeName().equals(carType) && car.isAvailable(start, end)) {
-				availableCars.add(car);
-			}
-		}
-		return availableCars;
+	private List<Car> getAvailableCars(String carType, int startDay, int endDay) {
+		return getAvailabilityIndex().getFreeCars(carType, startDay, endDay);
+	}
+
+	/**
+	 * Handle cars which were stored in this company without going through
+	 * this entity, such as by the {@code FleetImporter}. This bumps the
+	 * version, so cached snapshots pick up the new cars.
+	 */
+	public void fleetChanged() {
+		cars = null;
+		invalidateIndexes();
+		bumpVersion();
 	}
 
 	protected void addCar(Car car) {
 		addCarType(car.getType());
 		cars.add(car);
+		invalidateIndexes();
 	}
 
 	protected void removeCar(Car car) {
 		cars.remove(car);
+		invalidateIndexes();
+	}
+
+	/***********
+	 * INDEXES *
+	 ***********/
+
+	private Map<String, List<Car>> getCarsByType() {
+		if (carsByType == null) {
+			carsByType = new HashMap<String, List<Car>>();
+			for (Car car : getCars()) {
+				List<Car> carsOfType = carsByType.get(car.getTypeName());
+				if (carsOfType == null) {
+					carsOfType = new ArrayList<Car>();
+					carsByType.put(car.getTypeName(), carsOfType);
+				}
+				carsOfType.add(car);
+			}
+		}
+		return carsByType;
+	}
+
+	private Map<Long, Car> getCarsById() {
+		if (carsById == null) {
+			carsById = new HashMap<Long, Car>();
+			for (Car car : getCars()) {
+				// Cars only have an ID once they are persisted
+				if (car.getKey() != null) {
+					carsById.put(car.getId(), car);
+				}
+			}
+		}
+		return carsById;
+	}
+
+	private AvailabilityIndex getAvailabilityIndex() {
+		if (availabilityIndex == null) {
+			// Build from the (possibly freshly loaded) cars
+			availabilityIndex = new AvailabilityIndex(getCarsByType());
+		}
+		return availabilityIndex;
+	}
+
+	private void invalidateIndexes() {
+		carsByType = null;
+		carsById = null;
+		availabilityIndex = null;
+	}
+
+	/**************
+	 * ASSIGNMENT *
+	 **************/
+
+	public CarAssignmentStrategy getAssignmentStrategy() {
+		if (assignmentStrategy == null) {
+			assignmentStrategy = new BestFitAssignmentStrategy();
+		}
+		return assignmentStrategy;
+	}
+
+	public void setAssignmentStrategy(CarAssignmentStrategy assignmentStrategy) {
+		this.assignmentStrategy = assignmentStrategy;
 	}
 
 	/****************
@@ -179,48 +379,65 @@ public class CarRentalCompany {
 
 	public Quote createQuote(ReservationConstraints constraints, String client)
 			throws ReservationException {
-		logger.log(Level.INFO, "<{0}> Creating tentative reservation for {1} with constraints {2}",
-				new Object[] { name, client, constraints.toString() });
+		return createQuote(name, getCarType(constraints.getCarType()), getAvailabilityIndex(),
+				constraints, client);
+	}
 
-		CarType type = getCarType(constraints.getCarType());
+	/**
+	 * Create a quote for a car of the given type, provided that the given
+	 * index has one available. This is shared with {@link CompanySnapshot},
+	 * so quotes are priced the same way whether they come from a snapshot or
+	 * from the company itself.
+	 */
+	static Quote createQuote(String companyName, CarType type, AvailabilityIndex index,
+			ReservationConstraints constraints, String client) throws ReservationException {
+		logger.log(Level.INFO, "<{0}> Creating tentative reservation for {1} with constraints {2}",
+				new Object[] { companyName, client, constraints.toString() });
 
-		if (!isAvailable(constraints.getCarType(), constraints.getStartDate(),
-				constraints.getEndDate()))
-			throw new ReservationException("<" + name
+		checkPeriod(constraints.getStartDay(), constraints.getEndDay());
+		if (!index.isAvailable(type.getName(), constraints.getStartDay(),
+				constraints.getEndDay()))
+			throw new ReservationException("<" + companyName
 					+ "> No cars available to satisfy the given constraints.");
 
 		double price = calculateRentalPrice(type.getRentalPricePerDay(),
-				constraints.getStartDate(), constraints.getEndDate());
+				constraints.getStartDay(), constraints.getEndDay());
 
-		return new Quote(client, constraints.getStartDate(), constraints.getEndDate(), getName(),
-				constraints.getCarType(), price);
+		return new Quote(client, constraints.getStartDate(), constraints.getEndDate(),
+				companyName, type.getName(), price);
 	}
 
 	// Implementation can be subject to different pricing strategies
-	private double calculateRentalPrice(double rentalPricePerDay, Date start, Date end) {
-		return rentalPricePerDay
-				* Math.ceil((end.getTime() - start.getTime()) / (1000 * 60 * 60 * 24D));
+	private static double calculateRentalPrice(double rentalPricePerDay, int startDay,
+			int endDay) {
+		return rentalPricePerDay * (endDay - startDay);
 	}
 
 	public Reservation confirmQuote(Quote quote) throws ReservationException {
 		logger.log(Level.INFO, "<{0}> Reservation of {1}", new Object[] { name, quote.toString() });
-		List<Car> availableCars = getAvailableCars(quote.getCarType(), quote.getStartDate(),
-				quote.getEndDate());
+		List<Car> availableCars = getAvailableCars(quote.getCarType(), quote.getStartDay(),
+				quote.getEndDay());
 		if (availableCars.isEmpty())
 			throw new ReservationException("Reservation failed, all cars of type "
 					+ quote.getCarType() + " are unavailable from " + quote.getStartDate() + " to "
 					+ quote.getEndDate());
-		Car car = availableCars.get((int) (Math.random() * availableCars.size()));
+		Car car = getAssignmentStrategy().selectCar(availableCars, quote.getStartDay(),
+				quote.getEndDay());
 
 		Reservation res = new Reservation(quote, car);
 		car.addReservation(res);
+		getAvailabilityIndex().reserve(car, res);
+		bumpVersion();
 		return res;
 	}
 
 	public void cancelReservation(Reservation res) {
 		logger.log(Level.INFO, "<{0}> Cancelling reservation {1}",
 				new Object[] { name, res.toString() });
-		getCar(res.getCarId()).removeReservation(res);
+		Car car = getCar(res.getCarId());
+		car.removeReservation(res);
+		getAvailabilityIndex().release(car, res);
+		bumpVersion();
 	}
 
 }
\ No newline at end of file
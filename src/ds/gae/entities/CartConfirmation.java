@@ -0,0 +1,130 @@
+package ds.gae.entities;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.NamedQueries;
+import javax.persistence.NamedQuery;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+
+/**
+ * Outcome of confirming a cart, by the token of that cart.
+ *
+ * Confirmation tasks are delivered at least once. The outcome lives in the
+ * entity group of a company of the cart, and is written in the same
+ * transaction as the reservations of the cart in that company. A redelivery
+ * of the cart finds it in its own transaction, and returns the stored
+ * outcome instead of confirming the cart again.
+ *
+ * A successful outcome also holds the keys of the reservations it made in
+ * its company, so they can still be cancelled when another company of the
+ * cart fails in a later delivery.
+ *
+ * Outcomes are only needed while their cart can still be delivered. They
+ * are deleted by the {@code CartConfirmationCleanup} once they are older
+ * than the task age limit of the confirmation queues (12 hours, see
+ * {@code queue.xml}), with some margin.
+ */
+@Entity(name = CartConfirmation.KIND)
+@NamedQueries({ @NamedQuery(name = "CartConfirmation.createdBefore",
+		query = "SELECT c FROM CartConfirmation c WHERE c.created < :before") })
+public class CartConfirmation {
+
+	public static final String KIND = "CartConfirmation";
+
+	/**
+	 * CartConfirmation is identified by (CarRentalCompany, token).
+	 */
+	@Id
+	private Key key;
+
+	@Temporal(TemporalType.TIMESTAMP)
+	private Date created;
+
+	/**
+	 * The reason why the cart could not be confirmed, or null if it was
+	 * confirmed successfully.
+	 */
+	private String failure;
+
+	/**
+	 * The keys of the reservations of the cart in the company, if it was
+	 * confirmed successfully.
+	 */
+	private List<Key> reservationKeys;
+
+	/***************
+	 * CONSTRUCTOR *
+	 ***************/
+
+	protected CartConfirmation() {
+	}
+
+	/**
+	 * Create the outcome of a cart which could not be confirmed.
+	 */
+	public CartConfirmation(String companyName, String token, String failure) {
+		this.key = getKey(companyName, token);
+		this.created = new Date();
+		this.failure = failure;
+		this.reservationKeys = new ArrayList<Key>();
+	}
+
+	/**
+	 * Create the outcome of a cart which was confirmed, with the keys of its
+	 * reservations in the company.
+	 */
+	public CartConfirmation(String companyName, String token, Collection<Key> reservationKeys) {
+		this.key = getKey(companyName, token);
+		this.created = new Date();
+		this.reservationKeys = new ArrayList<Key>(reservationKeys);
+	}
+
+	public Key getKey() {
+		return key;
+	}
+
+	public static Key getKey(String companyName, String token) {
+		return KeyFactory.createKey(CarRentalCompany.getKey(companyName), KIND, token);
+	}
+
+	public String getCompanyName() {
+		return getKey().getParent().getName();
+	}
+
+	public String getToken() {
+		return getKey().getName();
+	}
+
+	/***********
+	 * OUTCOME *
+	 ***********/
+
+	public Date getCreated() {
+		return created;
+	}
+
+	public boolean isConfirmed() {
+		return failure == null;
+	}
+
+	public String getFailure() {
+		return failure;
+	}
+
+	public List<Key> getReservationKeys() {
+		if (reservationKeys == null)
+			return Collections.emptyList();
+		return Collections.unmodifiableList(reservationKeys);
+	}
+
+}
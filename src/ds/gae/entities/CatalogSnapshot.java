@@ -0,0 +1,64 @@
+package ds.gae.entities;
+
+import java.util.Date;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+import com.google.appengine.api.datastore.Blob;
+
+/**
+ * Prebuilt snapshot of the catalog (companies and car types) and the
+ * availability of all companies, stored as a single blob.
+ * 
+ * New instances load this snapshot while warming up, instead of loading
+ * every company on their first requests.
+ */
+@Entity(name = CatalogSnapshot.KIND)
+public class CatalogSnapshot {
+
+	public static final String KIND = "CatalogSnapshot";
+
+	/**
+	 * CatalogSnapshot is identified by (name), there is only one in use.
+	 */
+	@Id
+	private String name;
+
+	@Temporal(TemporalType.TIMESTAMP)
+	private Date created;
+
+	private Blob data;
+
+	/***************
+	 * CONSTRUCTOR *
+	 ***************/
+
+	protected CatalogSnapshot() {
+	}
+
+	public CatalogSnapshot(String name, byte[] data) {
+		this.name = name;
+		setData(data);
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public Date getCreated() {
+		return created;
+	}
+
+	public byte[] getData() {
+		return data.getBytes();
+	}
+
+	public void setData(byte[] data) {
+		this.data = new Blob(data);
+		this.created = new Date();
+	}
+
+}
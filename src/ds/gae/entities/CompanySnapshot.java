@@ -0,0 +1,174 @@
+package ds.gae.entities;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import ds.gae.ReservationException;
+
+/**
+ * Read-only snapshot of the car types and availability of a
+ * {@link CarRentalCompany} at a certain version.
+ *
+ * A snapshot is detached from the datastore, so it can be shared between
+ * requests to create quotes without reloading the whole company.
+ */
+public class CompanySnapshot {
+
+	private final String name;
+	private final long version;
+	private final Map<String, CarType> carTypes;
+	private final AvailabilityIndex availabilityIndex;
+
+	/***************
+	 * CONSTRUCTOR *
+	 ***************/
+
+	CompanySnapshot(String name, long version, Map<String, CarType> carTypes,
+			AvailabilityIndex availabilityIndex) {
+		this.name = name;
+		this.version = version;
+		this.carTypes = new HashMap<String, CarType>(carTypes);
+		this.availabilityIndex = availabilityIndex;
+	}
+
+	/***********
+	 * COMPANY *
+	 ***********/
+
+	public String getName() {
+		return name;
+	}
+
+	public long getVersion() {
+		return version;
+	}
+
+	/*************
+	 * CAR TYPES *
+	 *************/
+
+	public Collection<CarType> getAllCarTypes() {
+		return Collections.unmodifiableCollection(carTypes.values());
+	}
+
+	public CarType getCarType(String carTypeName) {
+		if (carTypes.containsKey(carTypeName))
+			return carTypes.get(carTypeName);
+		throw new IllegalArgumentException("<" + carTypeName + "> No car type of name "
+				+ carTypeName);
+	}
+
+	public boolean isAvailable(String carTypeName, Date start, Date end) {
+		CarRentalCompany.checkPeriod(start, end);
+		getCarType(carTypeName);
+		return availabilityIndex.isAvailable(carTypeName, EpochDays.fromDate(start),
+				EpochDays.fromDate(end));
+	}
+
+	/**
+	 * Get the number of cars of the given type which are free on every day
+	 * from the given start day up to and including the given end day.
+	 */
+	public int getNbOfFreeCars(String carTypeName, int startDay, int endDay) {
+		return availabilityIndex.getNbOfFreeCars(carTypeName, startDay, endDay);
+	}
+
+	public Set<CarType> getAvailableCarTypes(Date start, Date end) {
+		CarRentalCompany.checkPeriod(start, end);
+		int startDay = EpochDays.fromDate(start);
+		int endDay = EpochDays.fromDate(end);
+		Set<CarType> availableCarTypes = new HashSet<CarType>();
+		for (String carTypeName : availabilityIndex.getCarTypeNames()) {
+			if (availabilityIndex.isAvailable(carTypeName, startDay, endDay)) {
+				availableCarTypes.add(carTypes.get(carTypeName));
+			}
+		}
+		return availableCarTypes;
+	}
+
+	/**
+	 * Check the availability of all car types over all given periods at once.
+	 * 
+	 * @param periods
+	 *            the periods to check
+	 * @return A matrix with the availability per car type and period.
+	 */
+	public AvailabilityMatrix getAvailability(List<Period> periods) {
+		return availabilityIndex.getAvailability(periods);
+	}
+
+	/**
+	 * Get the number of free cars per car type and per day of the given
+	 * month.
+	 * 
+	 * @param year
+	 *            the year
+	 * @param month
+	 *            the month of the year, starting from 1 for January
+	 * @return The availability calendar of the month.
+	 */
+	public AvailabilityCalendar getCalendar(int year, int month) {
+		return availabilityIndex.getCalendar(name, year, month);
+	}
+
+	/*****************
+	 * SERIALIZATION *
+	 *****************/
+
+	/**
+	 * Write this snapshot in a compact binary form.
+	 */
+	public void writeTo(DataOutput out) throws IOException {
+		out.writeUTF(name);
+		out.writeLong(version);
+		out.writeInt(carTypes.size());
+		for (CarType type : carTypes.values()) {
+			out.writeUTF(type.getName());
+			out.writeInt(type.getNbOfSeats());
+			out.writeFloat(type.getTrunkSpace());
+			out.writeDouble(type.getRentalPricePerDay());
+			out.writeBoolean(type.isSmokingAllowed());
+		}
+		availabilityIndex.writeTo(out);
+	}
+
+	/**
+	 * Read a snapshot written by {@link #writeTo(DataOutput)}.
+	 */
+	public static CompanySnapshot readFrom(DataInput in) throws IOException {
+		String name = in.readUTF();
+		long version = in.readLong();
+		int nbOfCarTypes = in.readInt();
+		Map<String, CarType> carTypes = new HashMap<String, CarType>();
+		for (int i = 0; i < nbOfCarTypes; i++) {
+			String typeName = in.readUTF();
+			int nbOfSeats = in.readInt();
+			float trunkSpace = in.readFloat();
+			double rentalPricePerDay = in.readDouble();
+			boolean smokingAllowed = in.readBoolean();
+			carTypes.put(typeName, new CarType(name, typeName, nbOfSeats, trunkSpace,
+					rentalPricePerDay, smokingAllowed));
+		}
+		return new CompanySnapshot(name, version, carTypes, AvailabilityIndex.readFrom(in));
+	}
+
+	/**********
+	 * QUOTES *
+	 **********/
+
+	public Quote createQuote(ReservationConstraints constraints, String client)
+			throws ReservationException {
+		return CarRentalCompany.createQuote(name, getCarType(constraints.getCarType()),
+				availabilityIndex, constraints, client);
+	}
+
+}
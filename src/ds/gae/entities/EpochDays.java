@@ -0,0 +1,39 @@
+package ds.gae.entities;
+
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * Conversion between {@link Date}s and epoch days, i.e. the number of days
+ * since 01.01.1970 in the default time zone.
+ *
+ * Reservation periods are entered with a day precision, so an epoch day
+ * identifies the same calendar day as the date it was created from.
+ */
+public final class EpochDays {
+
+	private static final long MILLIS_PER_DAY = 24 * 60 * 60 * 1000L;
+
+	private static final TimeZone ZONE = TimeZone.getDefault();
+
+	private EpochDays() {
+	}
+
+	public static int fromDate(Date date) {
+		long millis = date.getTime();
+		return (int) floorDiv(millis + ZONE.getOffset(millis), MILLIS_PER_DAY);
+	}
+
+	public static Date toDate(int epochDay) {
+		long localMillis = epochDay * MILLIS_PER_DAY;
+		return new Date(localMillis - ZONE.getOffset(localMillis - ZONE.getRawOffset()));
+	}
+
+	private static long floorDiv(long x, long y) {
+		long q = x / y;
+		if ((x % y != 0) && ((x ^ y) < 0))
+			q--;
+		return q;
+	}
+
+}
@@ -0,0 +1,128 @@
+package ds.gae.entities;
+
+import java.util.Date;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+
+/**
+ * Progress of importing the fleet of a {@link CarRentalCompany} from a data
+ * file.
+ * 
+ * The progress lives in the entity group of the company, so it is updated in
+ * the same transaction as the cars it accounts for. An interrupted import
+ * resumes right after the last committed batch.
+ */
+@Entity(name = FleetImport.KIND)
+public class FleetImport {
+
+	public static final String KIND = "FleetImport";
+
+	/**
+	 * FleetImport is identified by (CarRentalCompany, dataFile).
+	 */
+	@Id
+	private Key key;
+
+	/**
+	 * Number of the line holding the next row to import, starting from 1.
+	 */
+	private long nextLine = 1;
+
+	/**
+	 * Number of cars of the next row which are imported already.
+	 */
+	private int nextCar;
+
+	/**
+	 * Total number of cars imported so far.
+	 */
+	private long nbOfCars;
+
+	private boolean done;
+
+	@Temporal(TemporalType.TIMESTAMP)
+	private Date updated;
+
+	/***************
+	 * CONSTRUCTOR *
+	 ***************/
+
+	protected FleetImport() {
+	}
+
+	public FleetImport(String companyName, String dataFile) {
+		this.key = getKey(companyName, dataFile);
+		this.updated = new Date();
+	}
+
+	public Key getKey() {
+		return key;
+	}
+
+	public static Key getKey(String companyName, String dataFile) {
+		return KeyFactory.createKey(CarRentalCompany.getKey(companyName), KIND, dataFile);
+	}
+
+	public String getCompanyName() {
+		return getKey().getParent().getName();
+	}
+
+	public String getDataFile() {
+		return getKey().getName();
+	}
+
+	/************
+	 * PROGRESS *
+	 ************/
+
+	public long getNextLine() {
+		return nextLine;
+	}
+
+	public int getNextCar() {
+		return nextCar;
+	}
+
+	public long getNbOfCars() {
+		return nbOfCars;
+	}
+
+	public boolean isDone() {
+		return done;
+	}
+
+	public Date getUpdated() {
+		return updated;
+	}
+
+	/**
+	 * Record that a number of cars of the next row were imported.
+	 */
+	public void addCars(int count) {
+		nextCar += count;
+		nbOfCars += count;
+		updated = new Date();
+	}
+
+	/**
+	 * Record that the next row is imported completely, and continue with the
+	 * row on the given line.
+	 */
+	public void skipTo(long line) {
+		nextLine = line;
+		nextCar = 0;
+		updated = new Date();
+	}
+
+	public void setDone() {
+		done = true;
+		updated = new Date();
+	}
+
+}
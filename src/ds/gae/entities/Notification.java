@@ -14,11 +14,16 @@ import javax.persistence.TemporalType;
 import org.datanucleus.api.jpa.annotations.Extension;
 
 import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
 
 @Entity(name = Notification.KIND)
-@NamedQueries({ @NamedQuery(name = "Notification.byRenter",
-		query = "SELECT n FROM Notification n WHERE n.renterKey = :renterKey "
-				+ "ORDER BY n.timestamp DESC") })
+@NamedQueries({
+		@NamedQuery(name = "Notification.byRenter",
+				query = "SELECT n FROM Notification n WHERE n.renterKey = :renterKey "
+						+ "ORDER BY n.timestamp DESC"),
+		@NamedQuery(name = "Notification.byRenterSince",
+				query = "SELECT n FROM Notification n WHERE n.renterKey = :renterKey "
+						+ "AND n.timestamp >= :since ORDER BY n.timestamp DESC") })
 public class Notification {
 
 	public static final String KIND = "Notification";
@@ -56,6 +61,14 @@ public class Notification {
 		this.timestamp = timestamp;
 	}
 
+	/**
+	 * Get the key of this notification, which is only known once it has been
+	 * flushed to the datastore.
+	 */
+	public Key getKey() {
+		return (encodedKey == null) ? null : KeyFactory.stringToKey(encodedKey);
+	}
+
 	public Key getRenterKey() {
 		return renterKey;
 	}
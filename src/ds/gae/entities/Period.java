@@ -0,0 +1,65 @@
+package ds.gae.entities;
+
+import java.util.Date;
+
+/**
+ * A period from a start date up to and including an end date.
+ */
+public class Period {
+
+	private final Date startDate;
+	private final Date endDate;
+	private final int startDay;
+	private final int endDay;
+
+	public Period(Date start, Date end) {
+		CarRentalCompany.checkPeriod(start, end);
+		this.startDate = start;
+		this.endDate = end;
+		this.startDay = EpochDays.fromDate(start);
+		this.endDay = EpochDays.fromDate(end);
+	}
+
+	public Date getStartDate() {
+		return startDate;
+	}
+
+	public Date getEndDate() {
+		return endDate;
+	}
+
+	public int getStartDay() {
+		return startDay;
+	}
+
+	public int getEndDay() {
+		return endDay;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("Period [from %s until %s]", getStartDate(), getEndDate());
+	}
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + startDay;
+		result = prime * result + endDay;
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj)
+			return true;
+		if (obj == null)
+			return false;
+		if (getClass() != obj.getClass())
+			return false;
+		Period other = (Period) obj;
+		return startDay == other.startDay && endDay == other.endDay;
+	}
+
+}
@@ -5,6 +5,7 @@ import java.util.Date;
 
 import javax.persistence.Basic;
 import javax.persistence.Embeddable;
+import javax.persistence.Transient;
 
 @Embeddable
 public class Quote implements Serializable {
@@ -24,6 +25,19 @@ public class Quote implements Serializable {
 	@Basic
 	private double rentalPrice;
 
+	/**
+	 * Start and end date as epoch days.
+	 * 
+	 * These are derived from the persisted dates on first use, so they are
+	 * also available after loading or deserializing an older quote.
+	 */
+	@Transient
+	private int startDay;
+	@Transient
+	private int endDay;
+	@Transient
+	private boolean hasDays;
+
 	/***************
 	 * CONSTRUCTOR *
 	 ***************/
@@ -49,6 +63,24 @@ public class Quote implements Serializable {
 		return endDate;
 	}
 
+	public int getStartDay() {
+		computeDays();
+		return startDay;
+	}
+
+	public int getEndDay() {
+		computeDays();
+		return endDay;
+	}
+
+	private void computeDays() {
+		if (!hasDays) {
+			startDay = EpochDays.fromDate(startDate);
+			endDay = EpochDays.fromDate(endDate);
+			hasDays = true;
+		}
+	}
+
 	public String getCarRenter() {
 		return carRenter;
 	}
@@ -0,0 +1,15 @@
+package ds.gae.entities;
+
+import java.util.List;
+
+/**
+ * Picks any of the free cars at random.
+ */
+public class RandomAssignmentStrategy implements CarAssignmentStrategy {
+
+	@Override
+	public Car selectCar(List<Car> freeCars, int startDay, int endDay) {
+		return freeCars.get((int) (Math.random() * freeCars.size()));
+	}
+
+}
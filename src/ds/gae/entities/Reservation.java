@@ -15,6 +15,7 @@ import javax.persistence.OneToOne;
 import org.datanucleus.api.jpa.annotations.Extension;
 
 import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
 
 @Entity(name = Reservation.KIND)
 @NamedQueries({
@@ -69,6 +70,14 @@ public class Reservation {
 	 * ID *
 	 ******/
 
+	/**
+	 * Get the key of this reservation, which is only known once it has been
+	 * flushed to the datastore.
+	 */
+	public Key getKey() {
+		return (encodedKey == null) ? null : KeyFactory.stringToKey(encodedKey);
+	}
+
 	public Key getCarKey() {
 		return carKey;
 	}
@@ -89,6 +98,14 @@ public class Reservation {
 		return getQuote().getEndDate();
 	}
 
+	public int getStartDay() {
+		return getQuote().getStartDay();
+	}
+
+	public int getEndDay() {
+		return getQuote().getEndDay();
+	}
+
 	public String getCarRenter() {
 		return getQuote().getCarRenter();
 	}
@@ -6,6 +6,8 @@ public class ReservationConstraints {
     
     private Date startDate;
     private Date endDate;
+    private int startDay;
+    private int endDay;
     private String carType;
 	
     public ReservationConstraints(Date start, Date end, String carType){
@@ -20,6 +22,11 @@ public class ReservationConstraints {
     
     private void setStartDate(Date startDate) {
 		this.startDate = startDate;
+		this.startDay = EpochDays.fromDate(startDate);
+	}
+
+	public int getStartDay() {
+		return startDay;
 	}
     
     public Date getEndDate() {
@@ -28,6 +35,11 @@ public class ReservationConstraints {
     
 	private void setEndDate(Date endDate) {
 		this.endDate = endDate;
+		this.endDay = EpochDays.fromDate(endDate);
+	}
+
+	public int getEndDay() {
+		return endDay;
 	}
 	
 	public String getCarType() {
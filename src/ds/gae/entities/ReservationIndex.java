@@ -0,0 +1,178 @@
+package ds.gae.entities;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Ordered index over the reservation periods of a single {@link Car}, in
+ * epoch days.
+ *
+ * The periods are kept sorted on their start, together with the running
+ * maximum of their ends. An overlap check then only needs a single binary
+ * search, instead of a scan over the complete reservation history of the car.
+ */
+class ReservationIndex {
+
+	private static final int INITIAL_CAPACITY = 8;
+
+	private int[] starts;
+	private int[] ends;
+	/**
+	 * {@code maxEnds[i]} is the maximum of {@code ends[0..i]}.
+	 */
+	private int[] maxEnds;
+	private int size;
+
+	/***************
+	 * CONSTRUCTOR *
+	 ***************/
+
+	public ReservationIndex(Collection<Reservation> reservations) {
+		List<Reservation> sorted = new ArrayList<Reservation>(reservations);
+		Collections.sort(sorted, new Comparator<Reservation>() {
+			@Override
+			public int compare(Reservation r1, Reservation r2) {
+				return Integer.compare(r1.getStartDay(), r2.getStartDay());
+			}
+		});
+
+		int capacity = Math.max(INITIAL_CAPACITY, sorted.size());
+		starts = new int[capacity];
+		ends = new int[capacity];
+		maxEnds = new int[capacity];
+		for (Reservation res : sorted) {
+			starts[size] = res.getStartDay();
+			ends[size] = res.getEndDay();
+			size++;
+		}
+		updateMaxEnds(0);
+	}
+
+	/***********
+	 * QUERIES *
+	 ***********/
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Check whether any indexed period overlaps with the given period. Both
+	 * bounds are inclusive.
+	 */
+	public boolean overlaps(int start, int end) {
+		// Last period starting before or at the end of the given period
+		int last = upperBound(end) - 1;
+		if (last < 0)
+			return false;
+		// One of the periods up to that one must end after or at the start
+		return maxEnds[last] >= start;
+	}
+
+	/**
+	 * Get the last day on which any period starting before the given day
+	 * ends, or {@link Integer#MIN_VALUE} if there is no such period.
+	 */
+	public int getEndBefore(int day) {
+		int last = lowerBound(day) - 1;
+		return (last < 0) ? Integer.MIN_VALUE : maxEnds[last];
+	}
+
+	/**
+	 * Get the first day on which a period starts after the given day, or
+	 * {@link Integer#MAX_VALUE} if there is no such period.
+	 */
+	public int getStartAfter(int day) {
+		int first = upperBound(day);
+		return (first < size) ? starts[first] : Integer.MAX_VALUE;
+	}
+
+	/*************
+	 * MUTATIONS *
+	 *************/
+
+	public void add(int start, int end) {
+		ensureCapacity(size + 1);
+		int pos = upperBound(start);
+		System.arraycopy(starts, pos, starts, pos + 1, size - pos);
+		System.arraycopy(ends, pos, ends, pos + 1, size - pos);
+		starts[pos] = start;
+		ends[pos] = end;
+		size++;
+		updateMaxEnds(pos);
+	}
+
+	public boolean remove(int start, int end) {
+		for (int i = lowerBound(start); i < size && starts[i] == start; i++) {
+			if (ends[i] == end) {
+				System.arraycopy(starts, i + 1, starts, i, size - i - 1);
+				System.arraycopy(ends, i + 1, ends, i, size - i - 1);
+				size--;
+				updateMaxEnds(i);
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/***********
+	 * HELPERS *
+	 ***********/
+
+	/**
+	 * Index of the first period starting at or after the given day.
+	 */
+	private int lowerBound(int day) {
+		int low = 0, high = size;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (starts[mid] < day)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	/**
+	 * Index of the first period starting strictly after the given day.
+	 */
+	private int upperBound(int day) {
+		int low = 0, high = size;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (starts[mid] <= day)
+				low = mid + 1;
+			else
+				high = mid;
+		}
+		return low;
+	}
+
+	private void updateMaxEnds(int from) {
+		int max = (from == 0) ? Integer.MIN_VALUE : maxEnds[from - 1];
+		for (int i = from; i < size; i++) {
+			max = Math.max(max, ends[i]);
+			maxEnds[i] = max;
+		}
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity > starts.length) {
+			int newCapacity = Math.max(capacity, starts.length * 2);
+			int[] newStarts = new int[newCapacity];
+			int[] newEnds = new int[newCapacity];
+			int[] newMaxEnds = new int[newCapacity];
+			System.arraycopy(starts, 0, newStarts, 0, size);
+			System.arraycopy(ends, 0, newEnds, 0, size);
+			System.arraycopy(maxEnds, 0, newMaxEnds, 0, size);
+			starts = newStarts;
+			ends = newEnds;
+			maxEnds = newMaxEnds;
+		}
+	}
+
+}
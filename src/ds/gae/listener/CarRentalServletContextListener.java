@@ -1,11 +1,6 @@
 package ds.gae.listener;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.util.HashSet;
-import java.util.Set;
-import java.util.StringTokenizer;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -13,9 +8,8 @@ import javax.servlet.ServletContextEvent;
 import javax.servlet.ServletContextListener;
 
 import ds.gae.CarRentalModel;
-import ds.gae.entities.Car;
-import ds.gae.entities.CarRentalCompany;
-import ds.gae.entities.CarType;
+import ds.gae.FleetImporter;
+import ds.gae.entities.FleetImport;
 
 public class CarRentalServletContextListener implements ServletContextListener {
 
@@ -24,16 +18,11 @@ public class CarRentalServletContextListener implements ServletContextListener {
 		// This will be invoked as part of a warming request,
 		// or the first user request if no warming request was invoked.
 
-		// check if dummy data is available, and add if necessary
-		if (!isDummyDataAvailable()) {
-			addDummyData();
-		}
-	}
+		// prime the caches from the catalog snapshot
+		CarRentalModel.get().loadCatalogSnapshot();
 
-	private boolean isDummyDataAvailable() {
-		// If the Hertz car rental company is in the datastore, we assume the
-		// dummy data is available
-		return CarRentalModel.get().getRentalCompany("Hertz") != null;
+		// add the dummy data, or finish adding it after an interrupted import
+		addDummyData();
 	}
 
 	private void addDummyData() {
@@ -42,55 +31,24 @@ public class CarRentalServletContextListener implements ServletContextListener {
 	}
 
 	private void loadRental(String name, String datafile) {
+		// Decide from the progress of the import rather than from the catalog
+		// snapshot, which may hold a company of which the import was
+		// interrupted
+		FleetImporter importer = new FleetImporter(CarRentalModel.get());
+		FleetImport progress = importer.getProgress(name, datafile);
+		if (progress != null && progress.isDone())
+			return;
 		Logger.getLogger(CarRentalServletContextListener.class.getName()).log(Level.INFO,
 				"loading {0} from file {1}", new Object[] { name, datafile });
 		try {
-
-			Set<Car> cars = loadData(name, datafile);
-			CarRentalCompany company = new CarRentalCompany(name, cars);
-			CarRentalModel.get().addRentalCompany(company);
-		} catch (NumberFormatException ex) {
-			Logger.getLogger(CarRentalServletContextListener.class.getName()).log(Level.SEVERE,
-					"bad file", ex);
+			progress = importer.importFleet(name, datafile);
+			Logger.getLogger(CarRentalServletContextListener.class.getName()).log(Level.INFO,
+					"{0} has {1} cars from file {2}",
+					new Object[] { name, progress.getNbOfCars(), datafile });
 		} catch (IOException ex) {
 			Logger.getLogger(CarRentalServletContextListener.class.getName()).log(Level.SEVERE,
-					null, ex);
-		}
-	}
-
-	public static Set<Car> loadData(String name, String datafile) throws NumberFormatException,
-			IOException {
-
-		Set<Car> cars = new HashSet<Car>();
-
-		// open file from jar
-		BufferedReader in = new BufferedReader(new InputStreamReader(
-				CarRentalServletContextListener.class.getClassLoader()
-						.getResourceAsStream(datafile)));
-		// while next line exists
-		while (in.ready()) {
-			// read line
-			String line = in.readLine();
-			// if comment: skip
-			if (line.startsWith("#")) {
-				continue;
-			}
-			// tokenize on ,
-			StringTokenizer csvReader = new StringTokenizer(line, ",");
-			// create new car type from first 5 fields
-			CarType type = new CarType(name,
-					csvReader.nextToken(),
-					Integer.parseInt(csvReader.nextToken()),
-					Float.parseFloat(csvReader.nextToken()),
-					Double.parseDouble(csvReader.nextToken()),
-					Boolean.parseBoolean(csvReader.nextToken()));
-			// create N new cars with given type, where N is the 5th field
-			for (int i = Integer.parseInt(csvReader.nextToken()); i > 0; i--) {
-				cars.add(new Car(type));
-			}
+					"bad file", ex);
 		}
-
-		return cars;
 	}
 
 	@Override
@@ -0,0 +1,68 @@
+package ds.gae.servlets;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import ds.gae.CarRentalModel;
+import ds.gae.entities.AvailabilityCalendar;
+import ds.gae.view.ViewTools;
+
+/**
+ * Returns the number of free cars per car type and per day of a month as
+ * JSON, for example {@code /availability?crc=Hertz&year=2012&month=3}.
+ */
+@SuppressWarnings("serial")
+public class AvailabilityCalendarServlet extends HttpServlet {
+
+	@Override
+	protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+			throws ServletException, IOException {
+		String crc = req.getParameter("crc");
+		int year, month;
+		try {
+			year = Integer.parseInt(req.getParameter("year"));
+			month = Integer.parseInt(req.getParameter("month"));
+		} catch (NumberFormatException e) {
+			resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid year or month");
+			return;
+		}
+		if (crc == null || month < 1 || month > 12) {
+			resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid company or month");
+			return;
+		}
+
+		AvailabilityCalendar calendar = CarRentalModel.get().getAvailabilityCalendar(crc, year,
+				month);
+		if (calendar == null) {
+			resp.sendError(HttpServletResponse.SC_NOT_FOUND, "CarRentalCompany not found.");
+			return;
+		}
+
+		resp.setContentType("application/json");
+		resp.setCharacterEncoding("UTF-8");
+		PrintWriter out = resp.getWriter();
+		out.print("{\"company\":" + ViewTools.encodeJSON(calendar.getCompanyName()));
+		out.print(",\"year\":" + calendar.getYear());
+		out.print(",\"month\":" + calendar.getMonth());
+		out.print(",\"days\":" + calendar.getNbOfDays());
+		out.print(",\"freeCars\":{");
+		for (int i = 0; i < calendar.getCarTypeNames().size(); i++) {
+			if (i > 0)
+				out.print(',');
+			out.print(ViewTools.encodeJSON(calendar.getCarTypeNames().get(i)) + ":[");
+			for (int day = 1; day <= calendar.getNbOfDays(); day++) {
+				if (day > 1)
+					out.print(',');
+				out.print(calendar.getFreeCount(i, day));
+			}
+			out.print(']');
+		}
+		out.print("}}");
+	}
+
+}
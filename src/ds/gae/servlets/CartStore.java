@@ -0,0 +1,129 @@
+package ds.gae.servlets;
+
+import javax.servlet.http.Cookie;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import javax.servlet.http.HttpSession;
+
+import ds.gae.Cart;
+import ds.gae.CartTokens;
+import ds.gae.ReservationException;
+
+/**
+ * Keeps the {@link Cart} of the current renter, either in the session or,
+ * when {@link CartTokens} are enabled, in a signed cookie held by the
+ * client.
+ * 
+ * With a cookie, quoting and confirming do not change the session, so the
+ * session is not written back to the datastore on every quote. Keep it that
+ * way: other session attributes should only be set when their value
+ * changes.
+ */
+public final class CartStore {
+
+	private static final String SESSION_ATTRIBUTE = "cart";
+	private static final String COOKIE_NAME = "cart";
+
+	/**
+	 * Maximum length of a token, to stay within the size limit of a cookie.
+	 */
+	private static final int MAX_TOKEN_LENGTH = 3800;
+
+	private CartStore() {
+	}
+
+	/**
+	 * Get the cart of the current renter.
+	 * 
+	 * @return The cart, or an empty cart if the renter has none or if its
+	 *         token is not valid for the renter.
+	 * @throws ReservationException
+	 *             The cart has expired. Its cookie is removed, so the renter
+	 *             starts over with an empty cart.
+	 */
+	public static Cart getCart(HttpServletRequest req, HttpServletResponse resp)
+			throws ReservationException {
+		HttpSession session = req.getSession();
+		if (!CartTokens.get().isEnabled()) {
+			Cart cart = (Cart) session.getAttribute(SESSION_ATTRIBUTE);
+			return (cart == null) ? new Cart() : cart;
+		}
+
+		String renter = (String) session.getAttribute("renter");
+		Cookie[] cookies = req.getCookies();
+		if (cookies != null) {
+			for (Cookie cookie : cookies) {
+				if (COOKIE_NAME.equals(cookie.getName())) {
+					Cart cart;
+					try {
+						cart = CartTokens.get().decode(cookie.getValue(), renter);
+					} catch (ReservationException e) {
+						addCookie(req, resp, "", 0);
+						throw e;
+					}
+					if (cart != null)
+						return cart;
+				}
+			}
+		}
+		return new Cart();
+	}
+
+	/**
+	 * Store the (changed) cart of the current renter.
+	 * 
+	 * @throws ReservationException
+	 *             The cart is too large to store in a cookie.
+	 */
+	public static void saveCart(HttpServletRequest req, HttpServletResponse resp, Cart cart)
+			throws ReservationException {
+		HttpSession session = req.getSession();
+		if (!CartTokens.get().isEnabled()) {
+			session.setAttribute(SESSION_ATTRIBUTE, cart);
+			return;
+		}
+
+		String token = CartTokens.get().encode(cart, (String) session.getAttribute("renter"));
+		if (token.length() > MAX_TOKEN_LENGTH)
+			throw new ReservationException("Your cart is full. Please confirm it first.");
+		addCookie(req, resp, token, -1);
+	}
+
+	/**
+	 * Remove the cart of the current renter.
+	 */
+	public static void clearCart(HttpServletRequest req, HttpServletResponse resp) {
+		if (!CartTokens.get().isEnabled()) {
+			req.getSession().removeAttribute(SESSION_ATTRIBUTE);
+			return;
+		}
+
+		addCookie(req, resp, "", 0);
+	}
+
+	/**
+	 * Set the cart cookie. The cookie cannot be read by scripts, and is only
+	 * sent back over HTTPS when it was set over HTTPS. The Servlet 2.5 API has
+	 * no HttpOnly flag, so the header is written directly.
+	 * 
+	 * @param maxAge
+	 *            the maximum age in seconds, or -1 to keep the cookie until
+	 *            the browser is closed
+	 */
+	private static void addCookie(HttpServletRequest req, HttpServletResponse resp, String value,
+			int maxAge) {
+		StringBuilder header = new StringBuilder();
+		header.append(COOKIE_NAME).append('=').append(value).append("; Path=/");
+		if (maxAge >= 0) {
+			header.append("; Max-Age=").append(maxAge);
+		}
+		// A secure cookie would never come back over plain HTTP, such as on
+		// the development server
+		if (req.isSecure()) {
+			header.append("; Secure");
+		}
+		header.append("; HttpOnly");
+		resp.addHeader("Set-Cookie", header.toString());
+	}
+
+}
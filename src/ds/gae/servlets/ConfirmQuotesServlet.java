@@ -2,7 +2,6 @@ package ds.gae.servlets;
 
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.HashMap;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -10,45 +9,46 @@ import javax.servlet.http.HttpServletRequest;
 import javax.servlet.http.HttpServletResponse;
 import javax.servlet.http.HttpSession;
 
-import com.google.appengine.api.taskqueue.Queue;
-import com.google.appengine.api.taskqueue.QueueFactory;
-import com.google.appengine.api.taskqueue.TaskOptions;
-
+import ds.gae.Cart;
 import ds.gae.ConfirmQuotesParams;
-import ds.gae.SerializationUtils;
+import ds.gae.ConfirmationDispatcher;
+import ds.gae.ReservationException;
 import ds.gae.entities.Quote;
 import ds.gae.view.JSPSite;
+import ds.gae.view.ViewTools;
 
 @SuppressWarnings("serial")
 public class ConfirmQuotesServlet extends HttpServlet {
 
-	@SuppressWarnings("unchecked")
 	@Override
 	protected void doPost(HttpServletRequest req, HttpServletResponse resp)
 			throws ServletException, IOException {
 
 		HttpSession session = req.getSession();
-		HashMap<String, ArrayList<Quote>> allQuotes = (HashMap<String, ArrayList<Quote>>) session
-				.getAttribute("quotes");
 		String renter = (String) session.getAttribute("renter");
 
-		// Collect quotes from session
-		ArrayList<Quote> qs = new ArrayList<Quote>();
-		for (String crcName : allQuotes.keySet()) {
-			qs.addAll(allQuotes.get(crcName));
+		// Collect quotes from the cart
+		Cart cart;
+		try {
+			cart = CartStore.getCart(req, resp);
+		} catch (ReservationException e) {
+			session.setAttribute("errorMsg", ViewTools.encodeHTML(e.getMessage()));
+			resp.sendRedirect(JSPSite.RESERVATION_ERROR.url());
+			return;
 		}
-		// Clear quotes in session
-		session.setAttribute("quotes", new HashMap<String, ArrayList<Quote>>());
-
-		// Construct serialized payload
-		ConfirmQuotesParams params = new ConfirmQuotesParams(qs, renter);
-		byte[] serializedParams = SerializationUtils.serialize(params);
-
-		// Create task and add it to the (default) queue
-		Queue queue = QueueFactory.getDefaultQueue();
-		TaskOptions options = TaskOptions.Builder.withUrl("/worker").payload(serializedParams);
-		queue.add(options);
-
-		resp.sendRedirect(JSPSite.CONFIRM_QUOTES_RESPONSE.url());
+		ArrayList<Quote> qs = cart.getQuotes();
+		// Clear the cart
+		CartStore.clearCart(req, resp);
+
+		// Hand the quotes to the workers
+		// The cart is confirmed with its id as token, so it is only confirmed
+		// once, even when an old copy of its cookie is submitted again
+		ConfirmQuotesParams params = new ConfirmQuotesParams(qs, renter, cart.getId());
+		ConfirmationDispatcher dispatcher = ConfirmationDispatcher.get();
+		long estimatedWait = dispatcher.estimateWait(params);
+		dispatcher.dispatch(params);
+
+		// Pass the estimate along with the redirect, rather than in the session
+		resp.sendRedirect(JSPSite.CONFIRM_QUOTES_RESPONSE.url() + "?wait=" + estimatedWait);
 	}
 }
@@ -2,9 +2,7 @@ package ds.gae.servlets;
 
 import java.io.IOException;
 import java.text.ParseException;
-import java.util.ArrayList;
 import java.util.Date;
-import java.util.HashMap;
 
 import javax.servlet.ServletException;
 import javax.servlet.http.HttpServlet;
@@ -13,6 +11,7 @@ import javax.servlet.http.HttpServletResponse;
 
 
 import ds.gae.CarRentalModel;
+import ds.gae.Cart;
 import ds.gae.ReservationException;
 import ds.gae.entities.Quote;
 import ds.gae.entities.ReservationConstraints;
@@ -22,7 +21,6 @@ import ds.gae.view.JSPSite;
 @SuppressWarnings("serial")
 public class CreateQuoteServlet extends HttpServlet {
 
-	@SuppressWarnings("unchecked")
 	@Override
 	protected void doPost(HttpServletRequest req, HttpServletResponse resp)
 			throws ServletException, IOException {
@@ -35,24 +33,12 @@ public class CreateQuoteServlet extends HttpServlet {
 			String crc = req.getParameter("crc");
 			String renter = (String) req.getSession().getAttribute("renter"); 
 			
+			// Read the cart first, so no quote is created for an expired cart
+			Cart cart = CartStore.getCart(req, resp);
 			Quote q = CarRentalModel.get().createQuote(crc, renter, new ReservationConstraints(startDate, endDate, carType));
 			
-			HashMap<String, ArrayList<Quote>> quotes = (HashMap<String, ArrayList<Quote>>) req.getSession().getAttribute("quotes");
-			if ( quotes == null ) {
-				quotes = new HashMap<String, ArrayList<Quote>>();
-				req.setAttribute("quotes", quotes);
-			}
-						
-			ArrayList<Quote> quotesOfCurrentCrc;
-			if ( quotes.containsKey(crc) ) {
-				quotesOfCurrentCrc = quotes.get(crc);
-			} else {
-				quotesOfCurrentCrc = new ArrayList<Quote>();
-				quotes.put(crc, quotesOfCurrentCrc);
-			}
-			
-			quotesOfCurrentCrc.add(q);
-			req.getSession().setAttribute("quotes", quotes);
+			cart.add(q);
+			CartStore.saveCart(req, resp, cart);
 			
 			resp.sendRedirect(JSPSite.CREATE_QUOTES.url());	
 		} catch (ParseException pe) {
@@ -0,0 +1,112 @@
+package ds.gae.servlets;
+
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+import com.google.appengine.api.datastore.Key;
+import com.google.appengine.api.datastore.KeyFactory;
+
+import ds.gae.CarRentalModel;
+import ds.gae.entities.Notification;
+import ds.gae.view.ViewTools;
+
+/**
+ * Long-polls for the new notifications of the logged-in renter, for example
+ * {@code /notifications/poll?since=1356994800000&seen=<key>}.
+ * 
+ * The cursor is the time of the newest notification the client knows about,
+ * together with the keys of all notifications at that time which it knows
+ * about: several notifications may share the same millisecond, so the time
+ * alone would either repeat or skip them. The request waits until a
+ * notification past the cursor arrives, or until the timeout elapses. The
+ * response is JSON with the new notifications (newest first) and the cursor
+ * for the next poll.
+ */
+@SuppressWarnings("serial")
+public class NotificationPollServlet extends HttpServlet {
+
+	/**
+	 * Time (in milliseconds) to wait for new notifications, well within the
+	 * request deadline.
+	 */
+	private static final long POLL_TIMEOUT = 25 * 1000L;
+
+	@Override
+	protected void doGet(HttpServletRequest req, HttpServletResponse resp)
+			throws ServletException, IOException {
+		String renter = (String) req.getSession().getAttribute("renter");
+		if (renter == null) {
+			resp.sendError(HttpServletResponse.SC_FORBIDDEN, "Not logged in.");
+			return;
+		}
+		long since;
+		Set<Key> seen = new HashSet<Key>();
+		try {
+			since = Long.parseLong(req.getParameter("since"));
+			String[] seenKeys = req.getParameterValues("seen");
+			if (seenKeys != null) {
+				for (String seenKey : seenKeys) {
+					seen.add(KeyFactory.stringToKey(seenKey));
+				}
+			}
+		} catch (IllegalArgumentException e) {
+			// Also covers a NumberFormatException
+			resp.sendError(HttpServletResponse.SC_BAD_REQUEST, "Invalid cursor");
+			return;
+		}
+
+		List<Notification> notifications = CarRentalModel.get().waitForNotifications(renter,
+				new Date(since), seen, POLL_TIMEOUT);
+
+		long cursor = since;
+		for (Notification n : notifications) {
+			cursor = Math.max(cursor, n.getTimestamp().getTime());
+		}
+		// The notifications at the new cursor time which the client now knows
+		Set<Key> cursorSeen = (cursor == since) ? seen : new HashSet<Key>();
+		for (Notification n : notifications) {
+			if (n.getTimestamp().getTime() == cursor && n.getKey() != null) {
+				cursorSeen.add(n.getKey());
+			}
+		}
+
+		resp.setContentType("application/json");
+		resp.setCharacterEncoding("UTF-8");
+		resp.setHeader("Cache-Control", "no-cache");
+		PrintWriter out = resp.getWriter();
+		out.print("{\"cursor\":" + cursor + ",\"seen\":[");
+		boolean first = true;
+		for (Key key : cursorSeen) {
+			if (!first)
+				out.print(',');
+			out.print(ViewTools.encodeJSON(KeyFactory.keyToString(key)));
+			first = false;
+		}
+		out.print("],\"notifications\":[");
+		for (int i = 0; i < notifications.size(); i++) {
+			Notification n = notifications.get(i);
+			String time;
+			synchronized (ViewTools.TIMESTAMP_FORMAT) {
+				time = ViewTools.TIMESTAMP_FORMAT.format(n.getTimestamp());
+			}
+			if (i > 0)
+				out.print(',');
+			String key = (n.getKey() == null) ? "null" : ViewTools.encodeJSON(KeyFactory
+					.keyToString(n.getKey()));
+			out.print("{\"key\":" + key);
+			out.print(",\"message\":" + ViewTools.encodeJSON(n.getMessage()));
+			out.print(",\"time\":" + ViewTools.encodeJSON(time) + "}");
+		}
+		out.print("]}");
+	}
+
+}
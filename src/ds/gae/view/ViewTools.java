@@ -35,6 +35,27 @@ public class ViewTools {
 	    return out.toString().replaceAll("(\r\n|\n)", "<br />");
 	}
 	
+	/**
+	 * Converts plain text to a quoted JSON string
+	 * 
+	 * @param plainText Input string
+	 * @return JSON string literal, including the surrounding quotes
+	 */
+	public static String encodeJSON(String plainText) {
+		StringBuilder out = new StringBuilder("\"");
+		for (int i = 0; i < plainText.length(); i++) {
+			char c = plainText.charAt(i);
+			if (c == '"' || c == '\\') {
+				out.append('\\').append(c);
+			} else if (c < 32 || c > 126) {
+				out.append(String.format("\\u%04x", (int) c));
+			} else {
+				out.append(c);
+			}
+		}
+		return out.append('"').toString();
+	}
+	
 	/**
 	 * Extracts and HTML-encodes stack trace output of a given Throwable object
 	 * and returns it as a string 
@@ -0,0 +1,89 @@
+package ds.gae;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Random;
+
+import ds.gae.entities.EpochDays;
+import ds.gae.entities.Quote;
+
+/**
+ * Compares the payload size and the encoding and decoding speed of the
+ * {@link ConfirmQuotesCodec} with Java serialization, for carts of several
+ * sizes.
+ *
+ * Run with {@code java ds.gae.ConfirmQuotesCodecBenchmark}.
+ */
+public class ConfirmQuotesCodecBenchmark {
+
+	private static final int[] CART_SIZES = { 1, 5, 20, 100 };
+	private static final int WARMUP_ITERATIONS = 20000;
+	private static final int ITERATIONS = 50000;
+
+	private static final String[] COMPANIES = { "Hertz", "Dockx", "Avis" };
+	private static final String[] CAR_TYPES = { "Compact", "Family Car", "Luxury Sedan",
+			"Minivan" };
+
+	/**
+	 * Sink for the decoded carts, so the work is not optimized away.
+	 */
+	private static int sink;
+
+	public static void main(String[] args) {
+		System.out.printf("%-6s %-8s %10s %14s %14s%n", "quotes", "format", "bytes", "encode (us)",
+				"decode (us)");
+		for (int size : CART_SIZES) {
+			ConfirmQuotesParams params = generateCart(new Random(size), size);
+			measure(size, "java", params, true);
+			measure(size, "compact", params, false);
+		}
+		if (sink == 42) {
+			System.out.println();
+		}
+	}
+
+	static ConfirmQuotesParams generateCart(Random random, int size) {
+		ArrayList<Quote> quotes = new ArrayList<Quote>(size);
+		for (int i = 0; i < size; i++) {
+			int startDay = 16000 + random.nextInt(365);
+			int endDay = startDay + random.nextInt(14);
+			quotes.add(new Quote("renter@example.com", EpochDays.toDate(startDay),
+					EpochDays.toDate(endDay), COMPANIES[random.nextInt(COMPANIES.length)],
+					CAR_TYPES[random.nextInt(CAR_TYPES.length)], (endDay - startDay + 1) * 45.5));
+		}
+		return new ConfirmQuotesParams(quotes, "renter@example.com", "9b2d5c61-6f3e-4d7a-9c1b");
+	}
+
+	static void measure(int size, String format, ConfirmQuotesParams params, boolean java) {
+		byte[] payload = encode(params, java);
+		for (int i = 0; i < WARMUP_ITERATIONS; i++) {
+			decode(encode(params, java));
+		}
+
+		long start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			payload = encode(params, java);
+		}
+		long encodeNanos = System.nanoTime() - start;
+
+		start = System.nanoTime();
+		for (int i = 0; i < ITERATIONS; i++) {
+			decode(payload);
+		}
+		long decodeNanos = System.nanoTime() - start;
+
+		System.out.printf("%-6d %-8s %10d %14.2f %14.2f%n", size, format, payload.length,
+				encodeNanos / 1000.0 / ITERATIONS, decodeNanos / 1000.0 / ITERATIONS);
+	}
+
+	static byte[] encode(ConfirmQuotesParams params, boolean java) {
+		return java ? SerializationUtils.serialize((Serializable) params) : SerializationUtils
+				.serialize(params);
+	}
+
+	static void decode(byte[] payload) {
+		ConfirmQuotesParams params = SerializationUtils.deserialize(payload);
+		sink += params.getQuotes().size();
+	}
+
+}
@@ -0,0 +1,205 @@
+package ds.gae;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+
+import ds.gae.entities.EpochDays;
+import ds.gae.entities.Quote;
+
+/**
+ * Round trips of {@link ConfirmQuotesParams} through the
+ * {@link ConfirmQuotesCodec}, and through {@link SerializationUtils} for
+ * both the compact and the legacy Java serialization format.
+ *
+ * Run with {@code java -ea ds.gae.ConfirmQuotesCodecTest}; every check
+ * throws an {@link AssertionError} when it fails.
+ */
+public class ConfirmQuotesCodecTest {
+
+	private static final long HOUR = 60 * 60 * 1000L;
+
+	public static void main(String[] args) throws IOException {
+		testDictionary();
+		testNullStrings();
+		testVarintsAndZigZag();
+		testFullDates();
+		testFullPrices();
+		testLegacyFormat();
+		testUnknownVersion();
+		testCountCap();
+		System.out.println("All checks passed");
+	}
+
+	/**
+	 * Every string is written once, however many quotes refer to it.
+	 */
+	static void testDictionary() {
+		ArrayList<Quote> quotes = new ArrayList<Quote>();
+		for (int i = 0; i < 50; i++) {
+			quotes.add(quote("Alice", 16000 + i, 16002 + i, "Hertz", "Compact", 99.5));
+		}
+		ConfirmQuotesParams params = new ConfirmQuotesParams(quotes, "Alice", "token");
+		byte[] payload = roundTrip(params);
+
+		check(count(payload, "Alice") == 1, "renter written once");
+		check(count(payload, "Hertz") == 1, "company written once");
+		check(count(payload, "Compact") == 1, "car type written once");
+		check(payload.length < 50 * 12, "quotes refer to the dictionary, size " + payload.length);
+	}
+
+	static void testNullStrings() {
+		ArrayList<Quote> quotes = new ArrayList<Quote>();
+		quotes.add(quote(null, 16000, 16001, "Hertz", null, 10));
+		roundTrip(new ConfirmQuotesParams(quotes, null, null));
+		roundTrip(new ConfirmQuotesParams(new ArrayList<Quote>(), "Alice", "token"));
+	}
+
+	/**
+	 * Days before 1970, negative prices and values of several varint bytes
+	 * survive a round trip.
+	 */
+	static void testVarintsAndZigZag() {
+		ArrayList<Quote> quotes = new ArrayList<Quote>();
+		quotes.add(quote("Alice", -1000, -990, "Hertz", "Compact", 10));
+		quotes.add(quote("Alice", -1, 0, "Hertz", "Compact", -12.5));
+		quotes.add(quote("Alice", 0, 0, "Hertz", "Compact", 0));
+		quotes.add(quote("Alice", 100000, 100365, "Hertz", "Compact", 1e9));
+		quotes.add(quote("Alice", 16000, 15990, "Hertz", "Compact", -1e9));
+		// More than 127 quotes and strings, for multi-byte counts and references
+		for (int i = 0; i < 200; i++) {
+			quotes.add(quote("Alice", 16000 + 64 * i, 16001 + 64 * i, "Company " + i, "Compact",
+					i * 1.25));
+		}
+		roundTrip(new ConfirmQuotesParams(quotes, "Alice", "token"));
+	}
+
+	/**
+	 * Dates which are not at the start of their day are kept in full.
+	 */
+	static void testFullDates() {
+		Date start = new Date(EpochDays.toDate(16000).getTime() + 9 * HOUR + 1234);
+		Date end = new Date(EpochDays.toDate(16003).getTime() + 17 * HOUR);
+		ArrayList<Quote> quotes = new ArrayList<Quote>();
+		quotes.add(new Quote("Alice", start, end, "Hertz", "Compact", 10));
+		quotes.add(new Quote("Alice", new Date(-123456789L), new Date(0), "Hertz", "Compact", 10));
+		roundTrip(new ConfirmQuotesParams(quotes, "Alice", "token"));
+	}
+
+	/**
+	 * Prices which are not a whole number of cents are kept in full.
+	 */
+	static void testFullPrices() {
+		ArrayList<Quote> quotes = new ArrayList<Quote>();
+		quotes.add(quote("Alice", 16000, 16001, "Hertz", "Compact", 12.345));
+		quotes.add(quote("Alice", 16000, 16001, "Hertz", "Compact", 1.0 / 3));
+		quotes.add(quote("Alice", 16000, 16001, "Hertz", "Compact", 1e300));
+		quotes.add(quote("Alice", 16000, 16001, "Hertz", "Compact", Double.NaN));
+		quotes.add(quote("Alice", 16000, 16001, "Hertz", "Compact", Double.POSITIVE_INFINITY));
+		roundTrip(new ConfirmQuotesParams(quotes, "Alice", "token"));
+	}
+
+	/**
+	 * Payloads written with Java serialization, by an earlier version, are
+	 * still read.
+	 */
+	static void testLegacyFormat() {
+		ArrayList<Quote> quotes = new ArrayList<Quote>();
+		quotes.add(quote("Alice", 16000, 16001, "Hertz", "Compact", 12.345));
+		ConfirmQuotesParams params = new ConfirmQuotesParams(quotes, "Alice", "token");
+
+		byte[] legacy = SerializationUtils.serialize((Serializable) params);
+		check((legacy[0] & 0xFF) != ConfirmQuotesCodec.MAGIC, "legacy payload has no magic");
+		ConfirmQuotesParams decoded = SerializationUtils.deserialize(legacy);
+		checkEquals(params, decoded);
+
+		byte[] compact = SerializationUtils.serialize(params);
+		check((compact[0] & 0xFF) == ConfirmQuotesCodec.MAGIC, "compact payload has magic");
+		check(compact.length < legacy.length, "compact payload is smaller");
+	}
+
+	static void testUnknownVersion() {
+		byte[] payload = { 99 };
+		try {
+			ConfirmQuotesCodec.decodeAfterMagic(new ByteArrayInputStream(payload));
+			check(false, "unknown version is rejected");
+		} catch (IOException e) {
+			// Expected
+		}
+	}
+
+	/**
+	 * A corrupt count is rejected before anything is allocated for it.
+	 */
+	static void testCountCap() {
+		// Version 1, followed by a count of 2^35 strings
+		byte[] strings = { 1, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, (byte) 0x80, 1 };
+		// Version 1, no strings, two null references and 2^31 - 1 quotes
+		byte[] quotes = { 1, 0, 0, 0, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 7 };
+		for (byte[] payload : Arrays.asList(strings, quotes)) {
+			try {
+				ConfirmQuotesCodec.decodeAfterMagic(new ByteArrayInputStream(payload));
+				check(false, "count is capped");
+			} catch (IOException e) {
+				check(e.getMessage().startsWith("Invalid count"), "count is capped: " + e);
+			}
+		}
+	}
+
+	/*********
+	 * UTILS *
+	 *********/
+
+	static Quote quote(String renter, int startDay, int endDay, String company, String carType,
+			double price) {
+		return new Quote(renter, EpochDays.toDate(startDay), EpochDays.toDate(endDay), company,
+				carType, price);
+	}
+
+	/**
+	 * Encode and decode the given cart, and check that nothing was lost.
+	 *
+	 * @return The encoded payload.
+	 */
+	static byte[] roundTrip(ConfirmQuotesParams params) {
+		byte[] payload = SerializationUtils.serialize(params);
+		ConfirmQuotesParams decoded = SerializationUtils.deserialize(payload);
+		checkEquals(params, decoded);
+		return payload;
+	}
+
+	static void checkEquals(ConfirmQuotesParams expected, ConfirmQuotesParams actual) {
+		check(actual != null, "payload is decoded");
+		check(equal(expected.getRenter(), actual.getRenter()), "renter " + actual.getRenter());
+		check(equal(expected.getToken(), actual.getToken()), "token " + actual.getToken());
+		check(expected.getQuotes().equals(actual.getQuotes()), "quotes " + actual.getQuotes());
+	}
+
+	static boolean equal(Object a, Object b) {
+		return (a == null) ? b == null : a.equals(b);
+	}
+
+	/**
+	 * Count the occurrences of the given string in the given payload.
+	 */
+	static int count(byte[] payload, String string) {
+		byte[] bytes = string.getBytes(Charset.forName("UTF-8"));
+		int count = 0;
+		for (int i = 0; i + bytes.length <= payload.length; i++) {
+			if (Arrays.equals(bytes, Arrays.copyOfRange(payload, i, i + bytes.length))) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	static void check(boolean condition, String message) {
+		if (!condition)
+			throw new AssertionError(message);
+	}
+
+}
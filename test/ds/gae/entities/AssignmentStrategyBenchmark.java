@@ -0,0 +1,151 @@
+package ds.gae.entities;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.google.appengine.api.datastore.Key;
+
+/**
+ * Replays synthetic streams of reservation requests through the
+ * {@link CarAssignmentStrategy}s and compares the resulting fleet
+ * utilisation and rate of failed confirmations.
+ *
+ * Requests arrive in random order over a planning horizon, as they do when
+ * renters book ahead. Short rentals mix with a share of long rentals, which
+ * only fit in the large free gaps of the calendars. Every strategy sees the
+ * same streams.
+ *
+ * Run with {@code java ds.gae.entities.AssignmentStrategyBenchmark}; no
+ * datastore is needed, as the cars are never persisted.
+ */
+public class AssignmentStrategyBenchmark {
+
+	private static final int NB_OF_CARS = 50;
+	private static final int HORIZON = 365;
+	private static final int NB_OF_RUNS = 20;
+	private static final double[] LOADS = { 0.6, 0.8, 1.0, 1.2 };
+
+	/**
+	 * Share of long rentals, of 14 to 30 days.
+	 */
+	private static final double LONG_RENTAL_SHARE = 0.15;
+
+	public static void main(String[] args) {
+		CarAssignmentStrategy[] strategies = { new RandomAssignmentStrategy(),
+				new BestFitAssignmentStrategy() };
+
+		System.out.printf("%d cars, %d days, %d runs per load%n", NB_OF_CARS, HORIZON,
+				NB_OF_RUNS);
+		System.out.printf("%-6s %-28s %12s %12s %12s%n", "load", "strategy", "utilisation",
+				"failed", "failed long");
+		for (double load : LOADS) {
+			for (CarAssignmentStrategy strategy : strategies) {
+				Result total = new Result();
+				for (int run = 0; run < NB_OF_RUNS; run++) {
+					List<int[]> requests = generateRequests(new Random(run), load);
+					total.add(replay(requests, strategy));
+				}
+				System.out.printf("%-6.1f %-28s %11.1f%% %11.1f%% %11.1f%%%n", load,
+						strategy.getClass().getSimpleName(), 100.0 * total.getUtilisation(),
+						100.0 * total.getFailureRate(), 100.0 * total.getLongFailureRate());
+			}
+		}
+	}
+
+	/**
+	 * Generate requests of {@code [startDay, endDay]} until the requested
+	 * car days reach the given share of the fleet capacity.
+	 */
+	static List<int[]> generateRequests(Random random, double load) {
+		List<int[]> requests = new ArrayList<int[]>();
+		long capacity = (long) NB_OF_CARS * HORIZON;
+		long requested = 0;
+		while (requested < load * capacity) {
+			int length = (random.nextDouble() < LONG_RENTAL_SHARE) ? 14 + random.nextInt(17)
+					: 1 + random.nextInt(7);
+			int startDay = random.nextInt(HORIZON - length + 1);
+			requests.add(new int[] { startDay, startDay + length - 1 });
+			requested += length;
+		}
+		return requests;
+	}
+
+	/**
+	 * Confirm the given requests in order on a fresh fleet, with the given
+	 * strategy.
+	 */
+	static Result replay(List<int[]> requests, CarAssignmentStrategy strategy) {
+		List<Car> cars = new ArrayList<Car>(NB_OF_CARS);
+		for (int i = 0; i < NB_OF_CARS; i++) {
+			cars.add(new Car((Key) null));
+		}
+
+		Result result = new Result();
+		result.capacity = (long) NB_OF_CARS * HORIZON;
+		for (int i = 0; i < requests.size(); i++) {
+			int startDay = requests.get(i)[0];
+			int endDay = requests.get(i)[1];
+			int length = endDay - startDay + 1;
+			boolean isLong = length >= 14;
+			result.nbOfRequests++;
+			if (isLong) {
+				result.nbOfLongRequests++;
+			}
+
+			List<Car> freeCars = new ArrayList<Car>();
+			for (Car car : cars) {
+				if (car.isAvailable(startDay, endDay)) {
+					freeCars.add(car);
+				}
+			}
+			if (freeCars.isEmpty()) {
+				result.nbOfFailures++;
+				if (isLong) {
+					result.nbOfLongFailures++;
+				}
+				continue;
+			}
+
+			Car car = strategy.selectCar(freeCars, startDay, endDay);
+			Quote quote = new Quote("renter" + i, EpochDays.toDate(startDay),
+					EpochDays.toDate(endDay), "Benchmark", "Compact", 0);
+			car.addReservation(new Reservation(quote, car));
+			result.reservedDays += length;
+		}
+		return result;
+	}
+
+	static class Result {
+
+		long capacity;
+		long reservedDays;
+		int nbOfRequests;
+		int nbOfFailures;
+		int nbOfLongRequests;
+		int nbOfLongFailures;
+
+		void add(Result other) {
+			capacity += other.capacity;
+			reservedDays += other.reservedDays;
+			nbOfRequests += other.nbOfRequests;
+			nbOfFailures += other.nbOfFailures;
+			nbOfLongRequests += other.nbOfLongRequests;
+			nbOfLongFailures += other.nbOfLongFailures;
+		}
+
+		double getUtilisation() {
+			return (double) reservedDays / capacity;
+		}
+
+		double getFailureRate() {
+			return (double) nbOfFailures / nbOfRequests;
+		}
+
+		double getLongFailureRate() {
+			return (double) nbOfLongFailures / nbOfLongRequests;
+		}
+
+	}
+
+}
@@ -4,6 +4,13 @@
 <% 
 	String renter = (String)session.getAttribute("renter");
 	JSPSite currentSite = JSPSite.CONFIRM_QUOTES_RESPONSE;
+	// Estimated wait in seconds, or -1 if unknown
+	Long estimatedWait = null;
+	try {
+		estimatedWait = Long.valueOf(request.getParameter("wait"));
+	} catch (NumberFormatException e) {
+		// No estimate
+	}
 
 %>   
  
@@ -14,7 +21,9 @@ if (currentSite != JSPSite.LOGIN && currentSite != JSPSite.PERSIST_TEST && rente
  %>
 	<meta http-equiv="refresh" content="0;URL='/login.jsp'">
 <% 
-  request.getSession().setAttribute("lastSiteCall", currentSite);
+  // Only write the session when the page changes
+  if (session.getAttribute("lastSiteCall") != currentSite)
+    request.getSession().setAttribute("lastSiteCall", currentSite);
 } 
  %>
 	<meta http-equiv="Content-Type" content="text/html; charset=UTF-8">
@@ -55,6 +64,12 @@ for (JSPSite site : JSPSite.publiclyLinkedValues()) {
 					<p>
 						Processing your reservations&hellip;
 					</p>
+<% if (estimatedWait != null && estimatedWait > 0) { %>
+					<p>
+						There are other reservations ahead of yours, this may take about
+						<%= (estimatedWait < 60) ? estimatedWait + " second(s)" : ((estimatedWait + 59) / 60) + " minute(s)" %>.
+					</p>
+<% } %>
 					<p>
 						Check <a href="<%= JSPSite.NOTIFICATIONS.url() %>">your notifications</a> for the result.
 					</p>
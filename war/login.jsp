@@ -13,7 +13,9 @@ if (currentSite != JSPSite.LOGIN && currentSite != JSPSite.PERSIST_TEST && rente
  %>
 	<meta http-equiv="refresh" content="0;URL='/login.jsp'">
 <% 
-  request.getSession().setAttribute("lastSiteCall", currentSite);
+  // Only write the session when the page changes
+  if (session.getAttribute("lastSiteCall") != currentSite)
+    request.getSession().setAttribute("lastSiteCall", currentSite);
 } 
  %>
 	<meta http-equiv="Content-Type" content="text/html; charset=UTF-8">
@@ -1,15 +1,25 @@
-<%@page import="java.util.HashMap"%>
 <%@page import="java.util.List"%>
 <%@page import="ds.gae.view.JSPSite"%>
 <%@page import="ds.gae.view.ViewTools"%>
 <%@page import="ds.gae.CarRentalModel"%>
+<%@page import="ds.gae.Cart"%>
+<%@page import="ds.gae.ReservationException"%>
+<%@page import="ds.gae.servlets.CartStore"%>
 <%@page import="ds.gae.entities.Quote"%>
 <%@ page language="java" contentType="text/html; charset=UTF-8"
     pageEncoding="UTF-8"%>
 <% 
 	JSPSite currentSite = JSPSite.CREATE_QUOTES;
 	String renter = (String)session.getAttribute("renter");
-	HashMap<String, List<Quote>> quotes = (HashMap<String, List<Quote>>)session.getAttribute("quotes"); 
+	Cart cart;
+	try {
+		cart = CartStore.getCart(request, response);
+	} catch (ReservationException e) {
+		// Tell the renter why the cart is gone, rather than showing it empty
+		session.setAttribute("errorMsg", ViewTools.encodeHTML(e.getMessage()));
+		response.sendRedirect(JSPSite.RESERVATION_ERROR.url());
+		return;
+	}
 	boolean anyQuotes = false;
 %>   
  
@@ -20,7 +30,9 @@ if (currentSite != JSPSite.LOGIN && currentSite != JSPSite.PERSIST_TEST && rente
  %>
 	<meta http-equiv="refresh" content="0;URL='/login.jsp'">
 <% 
-  request.getSession().setAttribute("lastSiteCall", currentSite);
+  // Only write the session when the page changes
+  if (session.getAttribute("lastSiteCall") != currentSite)
+    request.getSession().setAttribute("lastSiteCall", currentSite);
 } 
  %>
 	<meta http-equiv="Content-Type" content="text/html; charset=UTF-8">
@@ -86,8 +98,8 @@ for (String crc : CarRentalModel.get().getAllRentalCompanyNames()) {
 				</div>
 				</form>
 			</div>
-	<% if ( quotes != null && quotes.containsKey(crc) && quotes.get(crc).size() > 0) {
-		List<Quote> quotesForCrc = quotes.get(crc);
+	<% List<Quote> quotesForCrc = cart.getQuotes(crc);
+	   if ( quotesForCrc.size() > 0) {
 		anyQuotes = true;
 	 %>
 			<div class="groupLabel">Current Quotes</div>
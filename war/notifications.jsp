@@ -1,4 +1,5 @@
 ﻿<%@page import="java.util.List"%>
+<%@page import="com.google.appengine.api.datastore.KeyFactory"%>
 <%@page import="ds.gae.CarRentalModel"%>
 <%@page import="ds.gae.entities.Notification"%>
 <%@page import="ds.gae.view.JSPSite"%>
@@ -18,7 +19,9 @@ if (currentSite != JSPSite.LOGIN && currentSite != JSPSite.PERSIST_TEST && rente
  %>
 	<meta http-equiv="refresh" content="0;URL='/login.jsp'">
 <% 
-  request.getSession().setAttribute("lastSiteCall", currentSite);
+  // Only write the session when the page changes
+  if (session.getAttribute("lastSiteCall") != currentSite)
+    request.getSession().setAttribute("lastSiteCall", currentSite);
 } 
  %>
 	<meta http-equiv="Content-Type" content="text/html; charset=UTF-8">
@@ -59,7 +62,7 @@ for (JSPSite site : JSPSite.publiclyLinkedValues()) {
 	 %>
 			<div class="groupLabel">Notifications</div>
 			<div class="group">
-				<table>
+				<table id="notifications">
 					<tr>
 						<th>Message</th>					
 						<th>Time</th>			
@@ -67,10 +70,20 @@ for (JSPSite site : JSPSite.publiclyLinkedValues()) {
 						
 	<%
 	List<Notification> notifications = CarRentalModel.get().getNotifications(renter);
+	// Cursor for polling the notifications newer than these: the newest time,
+	// and the keys of the notifications at that time
+	long cursor = 0;
+	StringBuilder seen = new StringBuilder();
 	
 	if ( notifications != null && notifications.size() > 0) {
+		cursor = notifications.get(0).getTimestamp().getTime();
 		
 		for (Notification n : notifications) { 
+			if (n.getTimestamp().getTime() == cursor) {
+				if (seen.length() > 0)
+					seen.append(',');
+				seen.append(ViewTools.encodeJSON(KeyFactory.keyToString(n.getKey())));
+			}
 	 %>
 					<tr>
 						<td><%= n.getMessage()%></td>
@@ -80,12 +93,61 @@ for (JSPSite site : JSPSite.publiclyLinkedValues()) {
 		} 
 	} else {
 	 %>
-					<tr><td colspan="6">No Notifications</td></tr>
+					<tr id="noNotifications"><td colspan="6">No Notifications</td></tr>
 	<%
 	} 
 	 %>			
 				</table>
 
 			</div>
+			<script type="text/javascript">
+			(function() {
+				var cursor = <%= cursor %>;
+				var seen = [<%= seen %>];
+				// Keys of the shown notifications, to never show one twice
+				var shown = {};
+				for (var i = 0; i < seen.length; i++)
+					shown[seen[i]] = true;
+				function addRow(table, notification) {
+					if (notification.key) {
+						if (shown[notification.key])
+							return;
+						shown[notification.key] = true;
+					}
+					var row = table.insertRow(1);
+					row.insertCell(0).appendChild(document.createTextNode(notification.message));
+					row.insertCell(1).appendChild(document.createTextNode(notification.time));
+				}
+				function poll() {
+					var xhr = new XMLHttpRequest();
+					var url = "/notifications/poll?since=" + cursor;
+					for (var i = 0; i < seen.length; i++)
+						url += "&seen=" + encodeURIComponent(seen[i]);
+					xhr.open("GET", url, true);
+					xhr.onreadystatechange = function() {
+						if (xhr.readyState != 4)
+							return;
+						if (xhr.status != 200) {
+							// Back off before trying again
+							setTimeout(poll, 5000);
+							return;
+						}
+						var result = JSON.parse(xhr.responseText);
+						var table = document.getElementById("notifications");
+						var empty = document.getElementById("noNotifications");
+						if (empty && result.notifications.length > 0)
+							empty.parentNode.removeChild(empty);
+						// Newest first, so insert the oldest first
+						for (var i = result.notifications.length - 1; i >= 0; i--)
+							addRow(table, result.notifications[i]);
+						cursor = result.cursor;
+						seen = result.seen;
+						poll();
+					};
+					xhr.send();
+				}
+				poll();
+			})();
+			</script>
 
 <%@include file="_footer.jsp" %>